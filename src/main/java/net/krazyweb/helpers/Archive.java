@@ -1,15 +1,24 @@
 package net.krazyweb.helpers;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -29,8 +38,277 @@ public class Archive {
 	
 	private static final org.apache.logging.log4j.Logger log = LogManager.getLogger(Archive.class);
 	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/*
+	 * The number of bytes extract() may keep on the heap for a single archive.
+	 * Entries that would go over the budget are spilled to a temporary folder
+	 * and read back from disk whenever their data is requested.
+	 */
+	private static long defaultMemoryBudget = 128L * 1024L * 1024L;
+	
 	private Path path;
-	private Set<ArchiveFile> files = new HashSet<>();
+	private Set<ArchiveFile> files = new LinkedHashSet<>();
+	
+	/*
+	 * Lookup indexes over the files above, kept in sync by addFile().
+	 * The suffix index groups files by extension (".modinfo", ".json", ...)
+	 * which is what getFile(String) is almost always asked for.
+	 */
+	private Map<Path, ArchiveFile> pathIndex = new HashMap<>();
+	private Map<String, List<ArchiveFile>> suffixIndex = new HashMap<>();
+	
+	private long memoryBudget = defaultMemoryBudget;
+	private Path spillFolder;
+	
+	private List<Archive> sourceArchives = new ArrayList<>();
+	
+	private RandomAccessFile openFile;
+	private ISevenZipInArchive openArchive;
+	
+	/*
+	 * Holds an archive entry that did not fit in the memory budget.
+	 * The data is read back from the spill file on every call to getData(),
+	 * so callers only ever hold one such entry at a time.
+	 */
+	private static class SpilledArchiveFile extends ArchiveFile {
+		
+		private Path spillFile;
+		
+		private SpilledArchiveFile(final Path path, final Path spillFile) {
+			super(null, path, false);
+			this.spillFile = spillFile;
+		}
+		
+		@Override
+		public byte[] getData() {
+			
+			byte[] data = super.getData();
+			
+			if (data != null) {
+				return data;
+			}
+			
+			try {
+				return Files.readAllBytes(spillFile);
+			} catch (IOException e) {
+				log.error(new ParameterizedMessage("Reading spilled archive entry: {}", getPath()), e);
+				throw new RuntimeException("Could not read spilled archive entry '" + getPath() + "'", e);
+			}
+			
+		}
+		
+	}
+	
+	/*
+	 * An entry of an archive opened with open(). Nothing is decompressed
+	 * until the first call to getData(). When caching is enabled, the
+	 * decoded data is kept behind a soft reference so repeated reads are
+	 * free until the garbage collector needs the memory back.
+	 */
+	private static class LazyArchiveFile extends ArchiveFile {
+		
+		private final Archive archive;
+		private final int index;
+		private final boolean cacheEntry;
+		
+		private volatile SoftReference<byte[]> cache;
+		
+		private LazyArchiveFile(final Archive archive, final int index, final Path path, final boolean cacheEntry) {
+			super(null, path, false);
+			this.archive = archive;
+			this.index = index;
+			this.cacheEntry = cacheEntry;
+		}
+		
+		@Override
+		public byte[] getData() {
+			
+			byte[] data = super.getData();
+			
+			if (data != null) {
+				return data;
+			}
+			
+			SoftReference<byte[]> cached = cache;
+			
+			if (cached != null && (data = cached.get()) != null) {
+				return data;
+			}
+			
+			try {
+				data = archive.readEntry(index, getPath());
+			} catch (IOException | SevenZipException e) {
+				log.error(new ParameterizedMessage("Decompressing archive entry: {}", getPath()), e);
+				throw new RuntimeException("Could not decompress archive entry '" + getPath() + "'", e);
+			}
+			
+			if (cacheEntry) {
+				cache = new SoftReference<>(data);
+			}
+			
+			return data;
+			
+		}
+		
+	}
+	
+	/*
+	 * Collects a single entry into a byte array, sized up front when the
+	 * archive reports the entry's size.
+	 */
+	private static class MemorySink implements ArchiveSink {
+		
+		private byte[] data;
+		private int offset;
+		private ByteArrayOutputStream unknownSize;
+		
+		@Override
+		public void begin(final Path path, final long size) throws IOException {
+			if (size >= 0) {
+				data = new byte[(int) size];
+			} else {
+				unknownSize = new ByteArrayOutputStream();
+			}
+			offset = 0;
+		}
+		
+		@Override
+		public void write(final byte[] input, final int inputOffset, final int length) throws IOException {
+			
+			if (unknownSize != null) {
+				unknownSize.write(input, inputOffset, length);
+				return;
+			}
+			
+			if (offset + length > data.length) {
+				throw new IOException("Archive entry is larger than its reported size.");
+			}
+			
+			System.arraycopy(input, inputOffset, data, offset, length);
+			offset += length;
+			
+		}
+		
+		@Override
+		public void end(final Path path) throws IOException {
+			if (unknownSize != null) {
+				data = unknownSize.toByteArray();
+				unknownSize = null;
+			}
+		}
+		
+		@Override
+		public void abort(final Path path) {
+			data = null;
+			unknownSize = null;
+		}
+		
+		private byte[] getData() {
+			return data;
+		}
+		
+	}
+	
+	/*
+	 * Streams entries straight into a folder through a single reusable buffer.
+	 * Small chunks handed over by 7-Zip are coalesced before being written,
+	 * while chunks at least as large as the buffer bypass it entirely.
+	 */
+	private static class FolderSink implements ArchiveSink {
+		
+		private final Path folder;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		
+		private FileChannel channel;
+		
+		private FolderSink(final Path folder) {
+			this.folder = folder;
+		}
+		
+		@Override
+		public void begin(final Path path, final long size) throws IOException {
+			
+			Path target = folder.resolve(path);
+			
+			Files.createDirectories(target.getParent());
+			
+			channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			buffer.clear();
+			
+		}
+		
+		@Override
+		public void write(final byte[] data, final int offset, final int length) throws IOException {
+			
+			if (buffer.position() == 0 && length >= buffer.capacity()) {
+				writeFully(ByteBuffer.wrap(data, offset, length));
+				return;
+			}
+			
+			int position = offset;
+			int remaining = length;
+			
+			while (remaining > 0) {
+				
+				int count = Math.min(remaining, buffer.remaining());
+				
+				buffer.put(data, position, count);
+				position += count;
+				remaining -= count;
+				
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				
+			}
+			
+		}
+		
+		@Override
+		public void end(final Path path) throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
+				channel = null;
+			}
+		}
+		
+		/*
+		 * A partly written file would look like a complete one, so it's
+		 * deleted.
+		 */
+		@Override
+		public void abort(final Path path) {
+			
+			try {
+				if (channel != null) {
+					channel.close();
+					channel = null;
+				}
+				Files.deleteIfExists(folder.resolve(path));
+			} catch (IOException e) {
+				log.error(new ParameterizedMessage("Removing partly extracted file: {}", path), e);
+			}
+			
+			buffer.clear();
+			
+		}
+		
+		private void flush() throws IOException {
+			buffer.flip();
+			writeFully(buffer);
+			buffer.clear();
+		}
+		
+		private void writeFully(final ByteBuffer data) throws IOException {
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+		}
+		
+	}
 	
 	public Archive(final Path path) {
 		this.path = path;
@@ -40,8 +318,28 @@ public class Archive {
 		this(Paths.get(path));
 	}
 	
+	public static void setDefaultMemoryBudget(final long bytes) {
+		defaultMemoryBudget = bytes;
+	}
+	
+	public void setMemoryBudget(final long bytes) {
+		memoryBudget = bytes;
+	}
+	
 	public ArchiveFile getFile(String fileName) {
 		
+		if (isSuffix(fileName)) {
+			
+			List<ArchiveFile> matches = suffixIndex.get(fileName);
+			
+			if (matches == null) {
+				return null;
+			}
+			
+			return matches.get(0);
+			
+		}
+		
 		for (ArchiveFile file : files) {
 			if (file.getPath().toString().endsWith(fileName)) {
 				return file;
@@ -53,93 +351,373 @@ public class Archive {
 	}
 	
 	public ArchiveFile getFile(final Path filePath) {
+		return pathIndex.get(filePath);
+	}
+	
+	public Set<ArchiveFile> getFiles() {
+		return Collections.unmodifiableSet(files);
+	}
+	
+	/*
+	 * Whether a getFile(String) lookup can be answered by the suffix index,
+	 * i.e. it only names an extension such as ".modinfo".
+	 */
+	private static boolean isSuffix(final String fileName) {
+		return fileName.lastIndexOf('.') == 0 && fileName.length() > 1 && fileName.indexOf('/') < 0 && fileName.indexOf('\\') < 0;
+	}
+	
+	private static String getSuffix(final Path filePath) {
 		
-		for (ArchiveFile file : files) {
-			if (file.getPath().equals(filePath)) {
-				return file;
-			}
+		if (filePath.getFileName() == null) {
+			return null;
 		}
 		
-		return null;
+		String fileName = filePath.getFileName().toString();
+		int i = fileName.lastIndexOf('.');
+		
+		if (i < 0 || i == fileName.length() - 1) {
+			return null;
+		}
+		
+		return fileName.substring(i);
 		
 	}
 	
-	public Set<ArchiveFile> getFiles() {
-		return files;
-	}
-	
+	/*
+	 * Extracts every entry into memory, up to the archive's memory budget.
+	 * Anything past the budget is written to a temporary folder instead,
+	 * which is removed again by close().
+	 */
 	public boolean extract() {
 		
 		log.debug("Extracting: {}", path);
 		
+		if (!FileHelper.isSupported(path, false)) {
+			/*
+			 * TODO Inform user of invalid filetype.
+			 * Change boolean return to error codes to be passed along to the UI.
+			 */
+			return false;
+		}
+		
+		long time = System.currentTimeMillis();
+		
+		RandomAccessFile randomAccessFile = null;
+		ISevenZipInArchive inArchive = null;
+		
 		try {
 			
-			long time = System.currentTimeMillis();
+			randomAccessFile = new RandomAccessFile(path.toFile(), "r");
+			inArchive = SevenZip.openInArchive(null, new RandomAccessFileInStream(randomAccessFile));
 			
-			if (!FileHelper.isSupported(path, false)) {
-				/* 
-				 * TODO Inform user of invalid filetype.
-				 * Change boolean return to error codes to be passed along to the UI.
-				 */
-				return false;
-			}
-			
-			RandomAccessFile randomAccessFile = new RandomAccessFile(path.toFile(), "r");
-			ISevenZipInArchive inArchive = SevenZip.openInArchive(null, new RandomAccessFileInStream(randomAccessFile));
+			long remainingBudget = memoryBudget;
+			int spilled = 0;
 			
 			for (ISimpleInArchiveItem item : inArchive.getSimpleInterface().getArchiveItems()) {
 				
-				final ArchiveFile file = new ArchiveFile();
-				
-				file.setPath(Paths.get(item.getPath()));
+				Path filePath = Paths.get(item.getPath());
 				
 				if (item.isFolder()) {
 					log.debug("{}", item.getPath());
-					file.setFolder(true);
-					files.add(file);
+					addFile(new ArchiveFile(null, filePath, true));
 					continue;
 				}
-				
-				ExtractOperationResult result;
 
-				final byte[] outputData = new byte[item.getSize().intValue()];
-				
-				result = item.extractSlow(new ISequentialOutStream() {
+				long size = getSize(item);
 
-				    int offset = 0;
+				if (size >= 0 && size <= remainingBudget) {
 
-				    public int write(byte[] data) throws SevenZipException {
-				        for (int i = 0; i < data.length; i++) {
-				            outputData[i + offset] = data[i];
-				        }
-				        offset += data.length;
-				        return data.length;
-				    }
+					MemorySink sink = new MemorySink();
 
-				});
-				
-				file.setData(outputData);
-				
-				if (result != ExtractOperationResult.OK) {
-					return false;
+					if (extractItem(item, filePath, sink) != ExtractOperationResult.OK) {
+						return false;
+					}
+					
+					remainingBudget -= sink.getData().length;
+					addFile(new ArchiveFile(sink.getData(), filePath, false));
+					
+				} else {
+					
+					if (spillFolder == null) {
+						spillFolder = Files.createTempDirectory("starmodmanager-archive");
+						spillFolder.toFile().deleteOnExit();
+					}
+					
+					Path spillPath = Paths.get(Integer.toString(spilled++));
+					
+					if (extractItem(item, spillPath, new FolderSink(spillFolder)) != ExtractOperationResult.OK) {
+						return false;
+					}
+					
+					spillFolder.resolve(spillPath).toFile().deleteOnExit();
+					addFile(new SpilledArchiveFile(filePath, spillFolder.resolve(spillPath)));
+					
 				}
 				
-				files.add(file);
-				
 			}
 			
-			inArchive.close();
-			randomAccessFile.close();
+			if (spilled > 0) {
+				log.debug("'{}' exceeded its memory budget of {} bytes; {} entries were spilled to disk.", path, memoryBudget, spilled);
+			}
 			
 			log.debug("Time to extract '{}' to memory: {}ms", path, (System.currentTimeMillis() - time));
 			
 			return true;
+			
+		} catch (IOException | SevenZipException e) {
+			log.error(new ParameterizedMessage("Extracting archive: {}", path), e);
+			return false;
+		} finally {
+			closeQuietly(inArchive, randomAccessFile);
+		}
+		
+	}
+	
+	/*
+	 * Reads only the archive's item index. Entries are decompressed one at a
+	 * time when their data is first requested, so callers that only need a
+	 * handful of files never pay for the rest of the archive. The archive is
+	 * kept open until close() is called.
+	 */
+	public boolean open() {
+		return open(true);
+	}
+	
+	public boolean open(final boolean cacheEntries) {
+		
+		log.debug("Opening: {}", path);
+		
+		if (!FileHelper.isSupported(path, false)) {
+			return false;
+		}
+		
+		try {
+			
+			openFile = new RandomAccessFile(path.toFile(), "r");
+			openArchive = SevenZip.openInArchive(null, new RandomAccessFileInStream(openFile));
+			
+			for (ISimpleInArchiveItem item : openArchive.getSimpleInterface().getArchiveItems()) {
+				
+				Path filePath = Paths.get(item.getPath());
+				
+				if (item.isFolder()) {
+					addFile(new ArchiveFile(null, filePath, true));
+				} else {
+					addFile(new LazyArchiveFile(this, item.getItemIndex(), filePath, cacheEntries));
+				}
+				
+			}
+			
+			log.debug("Indexed {} entries in '{}'", files.size(), path);
+			
+			return true;
+			
+		} catch (IOException | SevenZipException e) {
+			log.error(new ParameterizedMessage("Opening archive: {}", path), e);
+			closeQuietly(openArchive, openFile);
+			openArchive = null;
+			openFile = null;
+			return false;
+		}
+		
+	}
+	
+	/*
+	 * 7-Zip archives are not safe for concurrent use, so entries of an
+	 * opened archive are decompressed one at a time.
+	 */
+	private synchronized byte[] readEntry(final int index, final Path filePath) throws IOException, SevenZipException {
 		
+		if (openArchive == null) {
+			throw new IOException("Archive has been closed: " + path);
+		}
+		
+		MemorySink sink = new MemorySink();
+		
+		if (extractItem(openArchive.getSimpleInterface().getArchiveItem(index), filePath, sink) != ExtractOperationResult.OK) {
+			throw new IOException("Could not decompress '" + filePath + "' from " + path);
+		}
+		
+		log.trace("Decompressed on demand from '{}': {}", path, filePath);
+		
+		return sink.getData();
+		
+	}
+	
+	/*
+	 * Streams every entry of the archive into the given folder without
+	 * keeping any of them in memory. The archive's file list is left empty.
+	 */
+	public boolean extract(final Path folder) {
+		return extract(new FolderSink(folder));
+	}
+	
+	/*
+	 * Streams every entry of the archive through the given sink.
+	 * Folders are skipped; they are implied by the paths of the entries.
+	 */
+	public boolean extract(final ArchiveSink sink) {
+		
+		log.debug("Streaming: {}", path);
+		
+		if (!FileHelper.isSupported(path, false)) {
+			return false;
+		}
+		
+		long time = System.currentTimeMillis();
+		
+		RandomAccessFile randomAccessFile = null;
+		ISevenZipInArchive inArchive = null;
+		
+		try {
+			
+			randomAccessFile = new RandomAccessFile(path.toFile(), "r");
+			inArchive = SevenZip.openInArchive(null, new RandomAccessFileInStream(randomAccessFile));
+			
+			for (ISimpleInArchiveItem item : inArchive.getSimpleInterface().getArchiveItems()) {
+				
+				if (item.isFolder()) {
+					continue;
+				}
+				
+				if (extractItem(item, Paths.get(item.getPath()), sink) != ExtractOperationResult.OK) {
+					return false;
+				}
+				
+			}
+			
+			log.debug("Time to stream '{}': {}ms", path, (System.currentTimeMillis() - time));
+			
+			return true;
+			
 		} catch (IOException | SevenZipException e) {
-			log.error(new ParameterizedMessage("Extracting archive: ", path), e);
+			log.error(new ParameterizedMessage("Streaming archive: {}", path), e);
 			return false;
+		} finally {
+			closeQuietly(inArchive, randomAccessFile);
+		}
+		
+	}
+	
+	private static ExtractOperationResult extractItem(final ISimpleInArchiveItem item, final Path filePath, final ArchiveSink sink) throws IOException, SevenZipException {
+		
+		/*
+		 * ISequentialOutStream can only throw SevenZipException, so sink
+		 * errors are carried out of the callback and rethrown afterwards.
+		 */
+		final IOException[] sinkError = new IOException[1];
+		
+		sink.begin(filePath, getSize(item));
+		
+		boolean ended = false;
+		
+		try {
+			
+			ExtractOperationResult result = item.extractSlow(new ISequentialOutStream() {
+				
+				@Override
+				public int write(final byte[] data) throws SevenZipException {
+					
+					try {
+						sink.write(data, 0, data.length);
+					} catch (IOException e) {
+						sinkError[0] = e;
+						return 0;
+					}
+					
+					return data.length;
+					
+				}
+				
+			});
+			
+			if (sinkError[0] != null) {
+				throw sinkError[0];
+			}
+			
+			if (result == ExtractOperationResult.OK) {
+				sink.end(filePath);
+				ended = true;
+			}
+			
+			return result;
+			
+		} finally {
+			if (!ended) {
+				sink.abort(filePath);
+			}
+		}
+		
+	}
+	
+	private static long getSize(final ISimpleInArchiveItem item) throws SevenZipException {
+		
+		Long size = item.getSize();
+		
+		if (size == null || size > Integer.MAX_VALUE) {
+			return -1;
+		}
+		
+		return size;
+		
+	}
+	
+	private static void closeQuietly(final ISevenZipInArchive inArchive, final RandomAccessFile randomAccessFile) {
+		
+		try {
+			if (inArchive != null) {
+				inArchive.close();
+			}
+		} catch (SevenZipException e) {
+			log.error("Closing archive.", e);
+		}
+		
+		try {
+			if (randomAccessFile != null) {
+				randomAccessFile.close();
+			}
+		} catch (IOException e) {
+			log.error("Closing archive.", e);
+		}
+		
+	}
+	
+	/*
+	 * Keeps the given archive open for as long as this one is.
+	 * Used when files of this archive read their data from another archive.
+	 */
+	public void addSourceArchive(final Archive archive) {
+		sourceArchives.add(archive);
+	}
+	
+	/*
+	 * Releases everything extract() put on disk or open() kept open, along
+	 * with any archives this one reads from. The archive's files must not be
+	 * used afterwards.
+	 */
+	public void close() {
+		
+		synchronized (this) {
+			closeQuietly(openArchive, openFile);
+			openArchive = null;
+			openFile = null;
 		}
 		
+		if (spillFolder != null) {
+			try {
+				FileHelper.deleteFile(spillFolder);
+			} catch (IOException e) {
+				log.error(new ParameterizedMessage("Deleting spill folder: {}", spillFolder), e);
+			}
+			spillFolder = null;
+		}
+		
+		for (Archive archive : sourceArchives) {
+			archive.close();
+		}
+		
+		sourceArchives.clear();
+		
 	}
 	
 	public boolean writeToFile(final File file) {
@@ -149,7 +727,7 @@ public class Archive {
 		try {
 			
 			long time = System.currentTimeMillis();
-		
+			
 			FileOutputStream fileOutput = new FileOutputStream(file);
 			ZipOutputStream zipOutput = new ZipOutputStream(fileOutput);
 			
@@ -176,7 +754,7 @@ public class Archive {
 			log.debug("Time to write '{}': {}ms", file.getName(), (System.currentTimeMillis() - time));
 			
 			return true;
-		
+			
 		} catch (IOException e) {
 			log.error("", e);
 			return false;
@@ -191,7 +769,7 @@ public class Archive {
 	public boolean extractToFolder(final Path folder) {
 		
 		try {
-		
+			
 			for (ArchiveFile file : files) {
 				
 				if (file.isFolder()) {
@@ -226,7 +804,7 @@ public class Archive {
 			OutputStream output = Files.newOutputStream(newPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
 			output.write(getFile(file).getData());
 			output.close();
-		
+			
 		} catch (IOException e) {
 			log.error("Extracting file to folder.", e);
 			return false;
@@ -241,7 +819,30 @@ public class Archive {
 	}
 	
 	public void addFile(final ArchiveFile file) {
-		files.add(file);
+		
+		if (!files.add(file)) {
+			return;
+		}
+		
+		if (!pathIndex.containsKey(file.getPath())) {
+			pathIndex.put(file.getPath(), file);
+		}
+		
+		String suffix = getSuffix(file.getPath());
+		
+		if (suffix != null) {
+			
+			List<ArchiveFile> matches = suffixIndex.get(suffix);
+			
+			if (matches == null) {
+				matches = new ArrayList<>(1);
+				suffixIndex.put(suffix, matches);
+			}
+			
+			matches.add(file);
+			
+		}
+		
 	}
 	
 }
\ No newline at end of file
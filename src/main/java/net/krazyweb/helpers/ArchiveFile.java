@@ -8,6 +8,14 @@ public class ArchiveFile {
 	private Path path;
 	private boolean folder;
 	
+	/*
+	 * When set, the contents of this file are read from the source file
+	 * until setData() is called. This lets repacked archives refer to the
+	 * entries of the archive they were built from without holding a second
+	 * copy of every entry in memory.
+	 */
+	private ArchiveFile source;
+	
 	protected ArchiveFile() {
 		
 	}
@@ -22,9 +30,19 @@ public class ArchiveFile {
 		this.data = f.data;
 		this.path = f.path;
 		this.folder = f.folder;
+		this.source = f;
+	}
+	
+	public ArchiveFile(final ArchiveFile source, final Path path) {
+		this.path = path;
+		this.folder = false;
+		this.source = source;
 	}
 	
 	public byte[] getData() {
+		if (data == null && source != null) {
+			return source.getData();
+		}
 		return data;
 	}
 	
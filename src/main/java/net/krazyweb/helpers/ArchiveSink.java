@@ -0,0 +1,22 @@
+package net.krazyweb.helpers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/*
+ * Receives the contents of an archive one entry at a time while it is being
+ * extracted by Archive.extract(ArchiveSink). Entries are delivered in archive
+ * order; begin() and end() bracket every non-folder entry and write() may be
+ * called any number of times in between. The data array passed to write() is
+ * owned by the extractor and must not be retained after the call returns.
+ * If an entry can't be extracted, abort() is called in place of end() so the
+ * sink can release whatever begin() opened.
+ */
+public interface ArchiveSink {
+	
+	public void begin(final Path path, final long size) throws IOException;
+	public void write(final byte[] data, final int offset, final int length) throws IOException;
+	public void end(final Path path) throws IOException;
+	public void abort(final Path path);
+	
+}
@@ -0,0 +1,179 @@
+package net.krazyweb.helpers;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.krazyweb.helpers.ChecksumEngine.Algorithm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Stores file contents once, named by their SHA-256 hash, and places them
+ * elsewhere as hard links. Where hard links aren't possible (e.g. the target
+ * is on another drive, or the file system doesn't support them) the blob is
+ * copied instead; after the first failure copying is used for the rest of
+ * the session.
+ * 
+ * Linked files share their contents with the blob, so editing a placed file
+ * in place changes the blob too. A blob is therefore checked before it is
+ * reused: the first time in a session it is hashed again, after which its
+ * size and modification time are compared against the ones it had when it
+ * was checked. A blob that no longer matches its hash is stored again.
+ */
+public class BlobStore {
+	
+	private static final Logger log = LogManager.getLogger(BlobStore.class);
+	
+	private Path folder;
+	private volatile boolean linksSupported = true;
+	
+	//The size and modification time of every blob known to match its hash
+	private Map<String, String> verified = new ConcurrentHashMap<>();
+	
+	public BlobStore(final Path folder) {
+		this.folder = folder;
+	}
+	
+	/*
+	 * Stores the data if it isn't stored already and returns its hash.
+	 * Safe to call from several threads at once.
+	 */
+	public String put(final byte[] data) throws IOException {
+		
+		String hash = ChecksumEngine.toHex(ChecksumEngine.digest(data, Algorithm.SHA256));
+		Path path = getPath(hash);
+		
+		if (contains(hash)) {
+			return hash;
+		}
+		
+		Files.createDirectories(path.getParent());
+		
+		Path temp = Files.createTempFile(path.getParent(), hash, ".tmp");
+		
+		try {
+			Files.write(temp, data);
+			//Replaces a blob that was changed, leaving files linked to it as they are
+			Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			verified.put(hash, getStamp(path));
+		} catch (final FileAlreadyExistsException e) {
+			//Stored by another thread in the meantime
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		
+		return hash;
+		
+	}
+	
+	/*
+	 * Forgets which blobs have been checked, so each one is hashed again
+	 * before it is next reused.
+	 */
+	public void recheck() {
+		verified.clear();
+	}
+	
+	/*
+	 * Returns true if the blob is stored and still matches its hash.
+	 */
+	public boolean contains(final String hash) throws IOException {
+		
+		Path path = getPath(hash);
+		
+		if (Files.notExists(path)) {
+			return false;
+		}
+		
+		String stamp = getStamp(path);
+		
+		if (stamp.equals(verified.get(hash))) {
+			return true;
+		}
+		
+		if (!hash.equals(ChecksumEngine.toHex(ChecksumEngine.digest(path, Algorithm.SHA256)))) {
+			log.warn("Blob '{}' was changed, most likely through a file linked to it. It will be stored again.", hash);
+			verified.remove(hash);
+			return false;
+		}
+		
+		verified.put(hash, stamp);
+		
+		return true;
+		
+	}
+	
+	public void place(final String hash, final Path target) throws IOException {
+		
+		Path blob = getPath(hash);
+		
+		Files.deleteIfExists(target);
+		Files.createDirectories(target.getParent());
+		
+		if (linksSupported) {
+			try {
+				Files.createLink(target, blob);
+				return;
+			} catch (final UnsupportedOperationException | IOException e) {
+				log.info("Could not create a hard link to '{}', copying files instead: {}", target, e.toString());
+				linksSupported = false;
+			}
+		}
+		
+		Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+		
+	}
+	
+	/*
+	 * Deletes every blob whose hash isn't in the given set.
+	 */
+	public void retainAll(final Set<String> hashes) throws IOException {
+		
+		if (Files.notExists(folder)) {
+			return;
+		}
+		
+		int deleted = 0;
+		
+		try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(folder)) {
+			for (Path prefix : prefixes) {
+				
+				if (!Files.isDirectory(prefix)) {
+					continue;
+				}
+				
+				try (DirectoryStream<Path> blobs = Files.newDirectoryStream(prefix)) {
+					for (Path blob : blobs) {
+						if (!hashes.contains(blob.getFileName().toString())) {
+							Files.delete(blob);
+							deleted++;
+						}
+					}
+				}
+				
+			}
+		}
+		
+		log.debug("Deleted {} unused blobs.", deleted);
+		
+	}
+	
+	private static String getStamp(final Path path) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		return attributes.size() + " " + attributes.lastModifiedTime().toMillis();
+	}
+	
+	private Path getPath(final String hash) {
+		return folder.resolve(hash.substring(0, 2)).resolve(hash);
+	}
+	
+}
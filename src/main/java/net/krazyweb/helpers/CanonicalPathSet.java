@@ -0,0 +1,162 @@
+package net.krazyweb.helpers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A set of files, compared the way Files.isSameFile() compares them but
+ * without a pair of stat calls for every comparison. Two paths are the same
+ * file if their absolute, normalized paths are equal, or if they have the
+ * same file key (device and inode on most Unix systems), or the same real
+ * path where the file system has no file keys. Each path's key is read once,
+ * when it is added or looked up, and only if its path doesn't match.
+ * 
+ * The set remembers the path each file was added with, so callers get back
+ * their own paths rather than equivalent ones.
+ */
+public class CanonicalPathSet {
+	
+	private static class Entry {
+		private Path path;
+		private Path normalized;
+		private Object key;
+	}
+	
+	private final Map<Path, Entry> byPath = new HashMap<>();
+	private final Map<Object, Entry> byKey = new HashMap<>();
+	
+	public CanonicalPathSet() {
+		
+	}
+	
+	public CanonicalPathSet(final Collection<Path> paths) {
+		for (Path path : paths) {
+			add(path);
+		}
+	}
+	
+	/*
+	 * Returns false if the same file was already in the set.
+	 */
+	public boolean add(final Path path) {
+		
+		if (find(path) != null) {
+			return false;
+		}
+		
+		Entry entry = new Entry();
+		entry.path = path;
+		entry.normalized = normalize(path);
+		entry.key = key(path);
+		
+		byPath.put(entry.normalized, entry);
+		
+		if (entry.key != null) {
+			byKey.put(entry.key, entry);
+		}
+		
+		return true;
+		
+	}
+	
+	public boolean contains(final Path path) {
+		return find(path) != null;
+	}
+	
+	/*
+	 * Returns the path the file was added with, or null if it isn't in the set.
+	 */
+	public Path get(final Path path) {
+		Entry entry = find(path);
+		return entry == null ? null : entry.path;
+	}
+	
+	/*
+	 * Returns the path the file was added with, or null if it wasn't in the set.
+	 */
+	public Path remove(final Path path) {
+		
+		Entry entry = find(path);
+		
+		if (entry == null) {
+			return null;
+		}
+		
+		byPath.remove(entry.normalized);
+		
+		if (entry.key != null) {
+			byKey.remove(entry.key);
+		}
+		
+		return entry.path;
+		
+	}
+	
+	public List<Path> getPaths() {
+		
+		List<Path> paths = new ArrayList<>();
+		
+		for (Entry entry : byPath.values()) {
+			paths.add(entry.path);
+		}
+		
+		return paths;
+		
+	}
+	
+	public int size() {
+		return byPath.size();
+	}
+	
+	public boolean isEmpty() {
+		return byPath.isEmpty();
+	}
+	
+	private Entry find(final Path path) {
+		
+		Entry entry = byPath.get(normalize(path));
+		
+		if (entry != null || byKey.isEmpty()) {
+			return entry;
+		}
+		
+		Object key = key(path);
+		
+		return key == null ? null : byKey.get(key);
+		
+	}
+	
+	private static Path normalize(final Path path) {
+		return path.toAbsolutePath().normalize();
+	}
+	
+	/*
+	 * Returns null if the file doesn't exist (yet), in which case only its
+	 * path can be compared.
+	 */
+	private static Object key(final Path path) {
+		
+		try {
+			
+			Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+			
+			if (fileKey != null) {
+				return fileKey;
+			}
+			
+			return path.toRealPath();
+			
+		} catch (final IOException e) {
+			return null;
+		}
+		
+	}
+	
+}
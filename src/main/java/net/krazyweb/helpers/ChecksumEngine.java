@@ -0,0 +1,201 @@
+package net.krazyweb.helpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Computes checksums and content hashes of files and byte arrays.
+ * 
+ * Files are read through a FileChannel in large blocks, so each block costs
+ * a single call into the checksum rather than one per byte. Adler32 and
+ * CRC32 are fast and fit in the database's checksum column; MD5 and SHA-256
+ * are meant for telling identical contents apart (deduplication).
+ */
+public class ChecksumEngine {
+	
+	private static final Logger log = LogManager.getLogger(ChecksumEngine.class);
+	
+	private static final int BLOCK_SIZE = 1024 * 1024;
+	
+	public static enum Algorithm {
+		
+		ADLER32(32), CRC32(32), MD5(128), SHA256(256);
+		
+		private final int bits;
+		
+		private Algorithm(final int bits) {
+			this.bits = bits;
+		}
+		
+		public int getBits() {
+			return bits;
+		}
+		
+	}
+	
+	/*
+	 * Checksum and MessageDigest have no common interface, so both are wrapped
+	 * to let the reading code stay the same for every algorithm.
+	 */
+	private static abstract class Hasher {
+		
+		protected abstract void update(final byte[] data, final int offset, final int length);
+		protected abstract byte[] digest();
+		protected abstract long value();
+		
+	}
+	
+	private static class ChecksumHasher extends Hasher {
+		
+		private final Checksum checksum;
+		
+		private ChecksumHasher(final Checksum checksum) {
+			this.checksum = checksum;
+		}
+		
+		@Override
+		protected void update(final byte[] data, final int offset, final int length) {
+			checksum.update(data, offset, length);
+		}
+		
+		@Override
+		protected byte[] digest() {
+			return ByteBuffer.allocate(4).putInt((int) checksum.getValue()).array();
+		}
+		
+		@Override
+		protected long value() {
+			return checksum.getValue();
+		}
+		
+	}
+	
+	private static class DigestHasher extends Hasher {
+		
+		private final MessageDigest digest;
+		private byte[] result;
+		
+		private DigestHasher(final MessageDigest digest) {
+			this.digest = digest;
+		}
+		
+		@Override
+		protected void update(final byte[] data, final int offset, final int length) {
+			digest.update(data, offset, length);
+		}
+		
+		@Override
+		protected byte[] digest() {
+			if (result == null) {
+				result = digest.digest();
+			}
+			return result;
+		}
+		
+		/*
+		 * The leading 64 bits of the digest, for use where only a long fits.
+		 */
+		@Override
+		protected long value() {
+			return ByteBuffer.wrap(digest()).getLong();
+		}
+		
+	}
+	
+	private static Hasher getHasher(final Algorithm algorithm) {
+		
+		try {
+			
+			switch (algorithm) {
+				case ADLER32:
+					return new ChecksumHasher(new Adler32());
+				case CRC32:
+					return new ChecksumHasher(new CRC32());
+				case MD5:
+					return new DigestHasher(MessageDigest.getInstance("MD5"));
+				case SHA256:
+					return new DigestHasher(MessageDigest.getInstance("SHA-256"));
+				default:
+					throw new IllegalArgumentException("Unknown checksum algorithm: " + algorithm);
+			}
+			
+		} catch (final NoSuchAlgorithmException e) {
+			//Every Java platform is required to support MD5 and SHA-256
+			throw new IllegalStateException(e);
+		}
+		
+	}
+	
+	private static Hasher read(final Path path, final Algorithm algorithm) throws IOException {
+		
+		long time = System.nanoTime();
+		
+		Hasher hasher = getHasher(algorithm);
+		
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(BLOCK_SIZE, channel.size())));
+			
+			while (channel.read(buffer) != -1) {
+				hasher.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			
+		}
+		
+		log.trace("{} of '{}' computed in {}ms", algorithm, path, (System.nanoTime() - time) / 1000000L);
+		
+		return hasher;
+		
+	}
+	
+	/*
+	 * Returns the checksum of the file as a long. For the 32-bit algorithms
+	 * this is the usual unsigned value; for content hashes it is the leading
+	 * 64 bits of the digest.
+	 */
+	public static long checksum(final Path path, final Algorithm algorithm) throws IOException {
+		return read(path, algorithm).value();
+	}
+	
+	public static long checksum(final byte[] data, final Algorithm algorithm) {
+		Hasher hasher = getHasher(algorithm);
+		hasher.update(data, 0, data.length);
+		return hasher.value();
+	}
+	
+	public static byte[] digest(final Path path, final Algorithm algorithm) throws IOException {
+		return read(path, algorithm).digest();
+	}
+	
+	public static byte[] digest(final byte[] data, final Algorithm algorithm) {
+		Hasher hasher = getHasher(algorithm);
+		hasher.update(data, 0, data.length);
+		return hasher.digest();
+	}
+	
+	public static String toHex(final byte[] digest) {
+		
+		StringBuilder output = new StringBuilder(digest.length * 2);
+		
+		for (byte b : digest) {
+			output.append(Character.forDigit((b >> 4) & 0xF, 16));
+			output.append(Character.forDigit(b & 0xF, 16));
+		}
+		
+		return output.toString();
+		
+	}
+	
+}
@@ -0,0 +1,162 @@
+package net.krazyweb.helpers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.krazyweb.helpers.ChecksumEngine.Algorithm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * A folder of cached byte arrays, one file per key, limited to a total size.
+ * When the limit is exceeded the least recently used entries are deleted;
+ * use is tracked through the files' modified times, so it survives restarts.
+ * 
+ * Entries are written to a temporary file and then moved into place, so an
+ * entry cut short by a crash is never read back.
+ */
+public class DiskCache {
+	
+	private static final Logger log = LogManager.getLogger(DiskCache.class);
+	
+	private Path folder;
+	private long budget;
+	private long size = -1;
+	
+	public DiskCache(final Path folder, final long budget) {
+		this.folder = folder;
+		this.budget = budget;
+	}
+	
+	public synchronized void setBudget(final long budget) {
+		this.budget = budget;
+	}
+	
+	public synchronized byte[] get(final String key) throws IOException {
+		
+		Path path = getPath(key);
+		
+		try {
+			byte[] data = Files.readAllBytes(path);
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+			return data;
+		} catch (final NoSuchFileException e) {
+			return null;
+		}
+		
+	}
+	
+	public synchronized void put(final String key, final byte[] data) throws IOException {
+		
+		if (data.length > budget) {
+			return;
+		}
+		
+		if (size < 0) {
+			size = measure();
+		}
+		
+		Path path = getPath(key);
+		
+		if (Files.exists(path)) {
+			size -= Files.size(path);
+		}
+		
+		Files.createDirectories(folder);
+		
+		Path temp = Files.createTempFile(folder, path.getFileName().toString(), ".tmp");
+		
+		try {
+			Files.write(temp, data);
+			Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		
+		size += data.length;
+		
+		if (size > budget) {
+			trim(path);
+		}
+		
+	}
+	
+	public synchronized void clear() throws IOException {
+		FileHelper.deleteFile(folder);
+		size = 0;
+	}
+	
+	private Path getPath(final String key) {
+		return folder.resolve(ChecksumEngine.toHex(ChecksumEngine.digest(key.getBytes(StandardCharsets.UTF_8), Algorithm.SHA256)));
+	}
+	
+	private long measure() throws IOException {
+		
+		if (Files.notExists(folder)) {
+			return 0;
+		}
+		
+		long total = 0;
+		
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+			for (Path path : stream) {
+				total += Files.size(path);
+			}
+		}
+		
+		return total;
+		
+	}
+	
+	private void trim(final Path keep) throws IOException {
+		
+		final Map<Path, FileTime> times = new HashMap<>();
+		List<Path> entries = new ArrayList<>();
+		
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+			for (Path path : stream) {
+				entries.add(path);
+				times.put(path, Files.getLastModifiedTime(path));
+			}
+		}
+		
+		Collections.sort(entries, new Comparator<Path>() {
+			@Override
+			public int compare(final Path path1, final Path path2) {
+				return times.get(path1).compareTo(times.get(path2));
+			}
+		});
+		
+		for (Path path : entries) {
+			
+			if (size <= budget) {
+				break;
+			}
+			
+			if (path.equals(keep)) {
+				continue;
+			}
+			
+			size -= Files.size(path);
+			Files.delete(path);
+			
+			log.trace("Evicted from cache: {}", path);
+			
+		}
+		
+	}
+	
+}
@@ -0,0 +1,98 @@
+package net.krazyweb.helpers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/*
+ * A cheap description of a file's identity: its size, last modified time
+ * and, where the file system provides one, its file key (device and inode
+ * on most Unix systems). If any of these differ the file has changed; if
+ * they are all the same it almost certainly has not, so the file doesn't
+ * need to be read to find out.
+ */
+public class FileFingerprint {
+	
+	private static final String SEPARATOR = ":";
+	
+	private final long size;
+	private final long lastModified;
+	private final String fileKey;
+	
+	public FileFingerprint(final long size, final long lastModified, final String fileKey) {
+		this.size = size;
+		this.lastModified = lastModified;
+		this.fileKey = fileKey;
+	}
+	
+	public static FileFingerprint of(final Path path) throws IOException {
+		
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		
+		Object key = attributes.fileKey();
+		
+		return new FileFingerprint(attributes.size(), attributes.lastModifiedTime().toMillis(), key == null ? null : key.toString());
+		
+	}
+	
+	/*
+	 * Parses the output of toString(). Returns null if the value is
+	 * null or malformed, e.g. for rows written before fingerprints existed.
+	 */
+	public static FileFingerprint fromString(final String value) {
+		
+		if (value == null) {
+			return null;
+		}
+		
+		String[] fields = value.split(SEPARATOR, 3);
+		
+		if (fields.length < 2) {
+			return null;
+		}
+		
+		try {
+			return new FileFingerprint(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields.length == 3 ? fields[2] : null);
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+		
+	}
+	
+	public long getSize() {
+		return size;
+	}
+	
+	public long getLastModified() {
+		return lastModified;
+	}
+	
+	public String getFileKey() {
+		return fileKey;
+	}
+	
+	@Override
+	public boolean equals(final Object other) {
+		
+		if (!(other instanceof FileFingerprint)) {
+			return false;
+		}
+		
+		FileFingerprint fingerprint = (FileFingerprint) other;
+		
+		return size == fingerprint.size && lastModified == fingerprint.lastModified && (fileKey == null ? fingerprint.fileKey == null : fileKey.equals(fingerprint.fileKey));
+		
+	}
+	
+	@Override
+	public int hashCode() {
+		return (int) (size ^ (size >>> 32)) * 31 + (int) (lastModified ^ (lastModified >>> 32));
+	}
+	
+	@Override
+	public String toString() {
+		return size + SEPARATOR + lastModified + (fileKey == null ? "" : SEPARATOR + fileKey);
+	}
+	
+}
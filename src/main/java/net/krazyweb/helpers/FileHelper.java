@@ -1,9 +1,7 @@
 package net.krazyweb.helpers;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -20,9 +18,8 @@ import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.zip.Adler32;
-import java.util.zip.CheckedInputStream;
 
+import net.krazyweb.helpers.ChecksumEngine.Algorithm;
 import net.krazyweb.helpers.FileCopier.TreeCopier;
 
 import org.apache.logging.log4j.LogManager;
@@ -198,21 +195,13 @@ public class FileHelper {
 		return isSupported(path, false);
 	}
 	
+	/*
+	 * Adler32 of the file's contents. This is the value stored in the
+	 * database's checksum column, so the algorithm must not change.
+	 */
 	public static long getChecksum(final Path path) throws IOException {
 		
-		FileInputStream inputFile = new FileInputStream(path.toFile());
-		CheckedInputStream checkedStream = new CheckedInputStream(inputFile, new Adler32());
-		BufferedInputStream input = new BufferedInputStream(checkedStream);
-		
-		while (input.read() != -1) {
-			//Do nothing; simply reading file contents.
-		}
-		
-		input.close();
-		checkedStream.close();
-		inputFile.close();
-		
-		long checksum = checkedStream.getChecksum().getValue();
+		long checksum = ChecksumEngine.checksum(path, Algorithm.ADLER32);
 		
 		log.debug("Checksum ({}) created for file: {}", checksum, path);
 		
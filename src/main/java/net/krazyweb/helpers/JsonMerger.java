@@ -0,0 +1,207 @@
+package net.krazyweb.helpers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+/*
+ * Merges several modified versions of a JSON document into one, relative
+ * to the document they were all based on.
+ * 
+ * Each version is compared with the base key by key. Only what a version
+ * actually changed (added, removed or replaced keys) is applied to the
+ * result, so changes made by different versions to different keys are all
+ * kept. Arrays, strings, numbers etc. are replaced as a whole. Versions are
+ * applied in order; when two of them change the same value differently, the
+ * later one wins and the clash is reported as a conflict.
+ * 
+ * Every node of every version is visited once, so merging takes time linear
+ * in the size of the documents.
+ */
+public class JsonMerger {
+	
+	public static class Conflict {
+		
+		private final String path;
+		private final String overridden;
+		private final String winner;
+		
+		private Conflict(final String path, final String overridden, final String winner) {
+			this.path = path;
+			this.overridden = overridden;
+			this.winner = winner;
+		}
+		
+		public String getPath() {
+			return path;
+		}
+		
+		public String getOverridden() {
+			return overridden;
+		}
+		
+		public String getWinner() {
+			return winner;
+		}
+		
+		@Override
+		public String toString() {
+			return path + ": '" + winner + "' overrides '" + overridden + "'";
+		}
+		
+	}
+	
+	private JsonValue merged;
+	private List<Conflict> conflicts = new ArrayList<>();
+	
+	/*
+	 * The version that last changed each path, and for each path the version
+	 * that last changed something below it.
+	 */
+	private Map<String, String> changedBy = new HashMap<>();
+	private Map<String, String> changedBelow = new HashMap<>();
+	
+	/*
+	 * Versions and their names are given in order of increasing precedence.
+	 * A null base means the document is new; the first version is used as
+	 * the base in that case.
+	 */
+	public JsonMerger(final JsonValue base, final List<JsonValue> versions, final List<String> names) {
+		
+		JsonValue original = base == null ? versions.get(0) : base;
+		
+		merged = copy(original);
+		
+		for (int i = 0; i < versions.size(); i++) {
+			merged = apply("", original, merged, versions.get(i), names.get(i));
+		}
+		
+	}
+	
+	public JsonValue getResult() {
+		return merged;
+	}
+	
+	public List<Conflict> getConflicts() {
+		return conflicts;
+	}
+	
+	private JsonValue apply(final String path, final JsonValue base, final JsonValue current, final JsonValue version, final String name) {
+		
+		//Keys that are new in both the result and this version are merged too
+		if ((base == null || base.isObject()) && current != null && current.isObject() && version.isObject()) {
+			
+			JsonObject baseObject = base == null ? new JsonObject() : base.asObject();
+			JsonObject currentObject = current.asObject();
+			JsonObject versionObject = version.asObject();
+			
+			for (String key : versionObject.names()) {
+				
+				JsonValue result = apply(path + "/" + key, baseObject.get(key), currentObject.get(key), versionObject.get(key), name);
+				
+				if (result != currentObject.get(key)) {
+					currentObject.set(key, result);
+				}
+				
+			}
+			
+			for (String key : baseObject.names()) {
+				if (versionObject.get(key) == null && currentObject.get(key) != null) {
+					record(path + "/" + key, name, true);
+					currentObject.remove(key);
+				}
+			}
+			
+			return current;
+			
+		}
+		
+		if (version.equals(base)) {
+			return current;
+		}
+		
+		record(path, name, !version.equals(current));
+		
+		return copy(version);
+		
+	}
+	
+	private void record(final String path, final String name, final boolean differs) {
+		
+		String previous = changedBy.get(path);
+		
+		if (previous == null) {
+			previous = changedBelow.get(path);
+		}
+		
+		if (previous == null) {
+			previous = getChangedAbove(path);
+		}
+		
+		if (differs && previous != null && !previous.equals(name)) {
+			conflicts.add(new Conflict(path.isEmpty() ? "/" : path, previous, name));
+		}
+		
+		changedBy.put(path, name);
+		
+		for (int i = path.lastIndexOf('/'); i > 0; i = path.lastIndexOf('/', i - 1)) {
+			changedBelow.put(path.substring(0, i), name);
+		}
+		
+		changedBelow.put("", name);
+		
+	}
+	
+	private String getChangedAbove(final String path) {
+		
+		for (int i = path.lastIndexOf('/'); i > 0; i = path.lastIndexOf('/', i - 1)) {
+			String name = changedBy.get(path.substring(0, i));
+			if (name != null) {
+				return name;
+			}
+		}
+		
+		return changedBy.get("");
+		
+	}
+	
+	/*
+	 * Values are changed in place while merging, so nothing from the inputs
+	 * may end up in the result without being copied.
+	 */
+	private static JsonValue copy(final JsonValue value) {
+		
+		if (value.isObject()) {
+			
+			JsonObject output = new JsonObject();
+			
+			for (JsonObject.Member member : value.asObject()) {
+				output.add(member.getName(), copy(member.getValue()));
+			}
+			
+			return output;
+			
+		}
+		
+		if (value.isArray()) {
+			
+			JsonArray output = new JsonArray();
+			
+			for (JsonValue element : value.asArray()) {
+				output.add(copy(element));
+			}
+			
+			return output;
+			
+		}
+		
+		return value;
+		
+	}
+	
+}
@@ -0,0 +1,27 @@
+package net.krazyweb.helpers;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Creates numbered daemon threads, matching the naming and daemon status
+ * of the threads the application starts by hand for its tasks.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+	
+	private final String name;
+	private final AtomicInteger count = new AtomicInteger();
+	
+	public NamedThreadFactory(final String name) {
+		this.name = name;
+	}
+	
+	@Override
+	public Thread newThread(final Runnable runnable) {
+		Thread thread = new Thread(runnable);
+		thread.setName(name + " " + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+}
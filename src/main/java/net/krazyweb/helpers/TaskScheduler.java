@@ -0,0 +1,266 @@
+package net.krazyweb.helpers;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Runs the application's background work on a few shared, bounded pools
+ * ("lanes") instead of a new thread per task. Within a lane, queued work
+ * runs by priority, then in the order it was scheduled.
+ * 
+ * Anything that changes the installed files goes through the INSTALL lane,
+ * which has a single thread, so two installs can never race on the patch
+ * folder. The DATABASE lane is single threaded for the same reason.
+ * 
+ * Work that fans out into many small jobs (importing, verifying and
+ * installing mods) submits them to the CPU lane and waits for the results.
+ * Those jobs run on the IO and INSTALL lanes' behalf, so they never wait on
+ * the CPU lane themselves, and the number of threads stays bounded however
+ * many of those tasks run at once.
+ * 
+ * Work is cancelled through the task itself (e.g. Task.cancel()); a task
+ * cancelled while it is still queued doesn't run when its turn comes.
+ */
+public class TaskScheduler {
+	
+	private static final Logger log = LogManager.getLogger(TaskScheduler.class);
+	
+	public static enum Lane {
+		
+		IO("IO Thread", 4),
+		CPU("CPU Thread", Runtime.getRuntime().availableProcessors()),
+		DATABASE("Database Thread", 1),
+		INSTALL("Install Thread", 1);
+		
+		private final String threadName;
+		private final int threads;
+		
+		private Lane(final String threadName, final int threads) {
+			this.threadName = threadName;
+			this.threads = threads;
+		}
+		
+	}
+	
+	public static enum Priority {
+		HIGH, NORMAL, LOW
+	}
+	
+	private static class LaneStatistics {
+		private AtomicLong completed = new AtomicLong();
+		private AtomicLong waitTime = new AtomicLong();
+		private AtomicLong runTime = new AtomicLong();
+	}
+	
+	private static class ScheduledTask implements Runnable, Comparable<ScheduledTask> {
+		
+		private static final AtomicLong sequence = new AtomicLong();
+		
+		private final Runnable task;
+		private final String name;
+		private final Priority priority;
+		private final LaneStatistics statistics;
+		private final long order = sequence.getAndIncrement();
+		private final long scheduled = System.nanoTime();
+		
+		private ScheduledTask(final Runnable task, final String name, final Priority priority, final LaneStatistics statistics) {
+			this.task = task;
+			this.name = name;
+			this.priority = priority;
+			this.statistics = statistics;
+		}
+		
+		@Override
+		public void run() {
+			
+			Thread thread = Thread.currentThread();
+			String threadName = thread.getName();
+			
+			long started = System.nanoTime();
+			
+			thread.setName(threadName + " (" + name + ")");
+			
+			try {
+				task.run();
+			} finally {
+				
+				thread.setName(threadName);
+				
+				long finished = System.nanoTime();
+				
+				statistics.completed.incrementAndGet();
+				statistics.waitTime.addAndGet(started - scheduled);
+				statistics.runTime.addAndGet(finished - started);
+				
+				log.debug("{} finished in {}ms after waiting {}ms.", name, (finished - started) / 1000000, (started - scheduled) / 1000000);
+				
+			}
+			
+		}
+		
+		@Override
+		public int compareTo(final ScheduledTask other) {
+			
+			if (priority != other.priority) {
+				return priority.compareTo(other.priority);
+			}
+			
+			return Long.compare(order, other.order);
+			
+		}
+		
+	}
+	
+	/*
+	 * A future that knows whether its task has started, so cancel() can wait
+	 * for tasks that were already running without waiting for queued ones to
+	 * reach the front of the queue.
+	 */
+	private static class LaneFuture<T> extends FutureTask<T> {
+		
+		private final AtomicBoolean started = new AtomicBoolean();
+		private final CountDownLatch finished = new CountDownLatch(1);
+		
+		private LaneFuture(final Callable<T> task) {
+			super(task);
+		}
+		
+		@Override
+		public void run() {
+			
+			if (!started.compareAndSet(false, true)) {
+				return;
+			}
+			
+			try {
+				super.run();
+			} finally {
+				finished.countDown();
+			}
+			
+		}
+		
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			
+			if (started.compareAndSet(false, true)) {
+				finished.countDown();
+			}
+			
+			return cancelled;
+			
+		}
+		
+	}
+	
+	private static final Map<Lane, ThreadPoolExecutor> executors = new EnumMap<>(Lane.class);
+	private static final Map<Lane, LaneStatistics> statistics = new EnumMap<>(Lane.class);
+	
+	static {
+		
+		for (Lane lane : Lane.values()) {
+			
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(lane.threads, lane.threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new NamedThreadFactory(lane.threadName));
+			executor.allowCoreThreadTimeOut(true);
+			
+			executors.put(lane, executor);
+			statistics.put(lane, new LaneStatistics());
+			
+		}
+		
+	}
+	
+	public static void execute(final Lane lane, final String name, final Runnable task) {
+		execute(lane, Priority.NORMAL, name, task);
+	}
+	
+	public static void execute(final Lane lane, final Priority priority, final String name, final Runnable task) {
+		
+		ThreadPoolExecutor executor = executors.get(lane);
+		
+		executor.execute(new ScheduledTask(task, name, priority, statistics.get(lane)));
+		
+		log.trace("{} scheduled on the {} lane ({} queued).", name, lane, executor.getQueue().size());
+		
+	}
+	
+	public static <T> Future<T> submit(final Lane lane, final String name, final Callable<T> task) {
+		return submit(lane, Priority.NORMAL, name, task);
+	}
+	
+	public static <T> Future<T> submit(final Lane lane, final Priority priority, final String name, final Callable<T> task) {
+		LaneFuture<T> future = new LaneFuture<>(task);
+		execute(lane, priority, name, future);
+		return future;
+	}
+	
+	/*
+	 * Cancels tasks returned by submit(), interrupting any that are running,
+	 * and waits for those to stop so whatever they were using can be closed.
+	 */
+	public static void cancel(final Collection<? extends Future<?>> futures) throws InterruptedException {
+		
+		for (Future<?> future : futures) {
+			if (future != null) {
+				future.cancel(true);
+			}
+		}
+		
+		for (Future<?> future : futures) {
+			if (future instanceof LaneFuture) {
+				((LaneFuture<?>) future).finished.await();
+			}
+		}
+		
+	}
+	
+	public static int getQueueDepth(final Lane lane) {
+		return executors.get(lane).getQueue().size();
+	}
+	
+	public static int getActiveCount(final Lane lane) {
+		return executors.get(lane).getActiveCount();
+	}
+	
+	public static long getCompletedCount(final Lane lane) {
+		return statistics.get(lane).completed.get();
+	}
+	
+	//The average time, in milliseconds, that tasks on the lane spent queued before running
+	public static double getAverageWaitTime(final Lane lane) {
+		LaneStatistics laneStatistics = statistics.get(lane);
+		return average(laneStatistics.waitTime.get(), laneStatistics.completed.get());
+	}
+	
+	//The average time, in milliseconds, that tasks on the lane took to run
+	public static double getAverageRunTime(final Lane lane) {
+		LaneStatistics laneStatistics = statistics.get(lane);
+		return average(laneStatistics.runTime.get(), laneStatistics.completed.get());
+	}
+	
+	private static double average(final long nanoseconds, final long count) {
+		
+		if (count == 0) {
+			return 0;
+		}
+		
+		return nanoseconds / 1000000.0 / count;
+		
+	}
+	
+}
@@ -0,0 +1,318 @@
+package net.krazyweb.starmodmanager.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.krazyweb.helpers.DiskCache;
+import net.krazyweb.helpers.FileFingerprint;
+import net.krazyweb.helpers.FileHelper;
+import net.krazyweb.stardb.databases.AssetDatabase;
+import net.krazyweb.stardb.exceptions.StarDBException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Caches the contents of the game's packed.pak between installs.
+ * 
+ * The pak's file list is saved to data/assetcache/index together with the
+ * fingerprint and checksum of the pak it was read from. Base assets that
+ * have been read (the originals of merged files) are kept in a small
+ * in-memory LRU and in an on-disk store, which is trimmed to a size budget
+ * by evicting the least recently used assets first.
+ * 
+ * The pak itself is only opened when an asset isn't cached, or when the
+ * game has been updated and the file list has to be read again. A changed
+ * fingerprint with an unchanged checksum (e.g. the file was copied) keeps
+ * the cache.
+ * 
+ * Merges look up assets from many threads at once. Lookups use the file
+ * list as of the last validate(), which installs call once up front, and
+ * only reading from the pak is done one at a time.
+ */
+class AssetCache {
+	
+	private static final Logger log = LogManager.getLogger(AssetCache.class);
+	
+	private static final Path CACHE_FOLDER = Paths.get("data", "assetcache");
+	private static final Path INDEX_PATH = CACHE_FOLDER.resolve("index");
+	private static final Path ASSET_FOLDER = CACHE_FOLDER.resolve("assets");
+	
+	private static final long MEMORY_BUDGET = 16 * 1024 * 1024;
+	
+	private static AssetCache instance;
+	
+	private Path pak;
+	private FileFingerprint fingerprint;
+	private volatile Set<String> fileList;
+	
+	private final Object databaseLock = new Object();
+	private AssetDatabase database;
+	
+	//Access ordered, so reads change it too; guarded by its own lock
+	private Map<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+	private long memorySize;
+	private DiskCache disk;
+	
+	private AssetCache(final Path pak, final long diskBudget) {
+		this.pak = pak;
+		disk = new DiskCache(ASSET_FOLDER, diskBudget);
+	}
+	
+	protected static synchronized AssetCache getInstance(final Path pak, final long diskBudget) {
+		
+		if (instance == null || !instance.pak.equals(pak)) {
+			instance = new AssetCache(pak, diskBudget);
+		}
+		
+		instance.disk.setBudget(diskBudget);
+		
+		return instance;
+		
+	}
+	
+	//Returns the cache of the game assets in the configured Starbound folder
+	protected static AssetCache getInstance(final SettingsModelInterface settings) {
+		return getInstance(settings.getPropertyPath("starboundpath").resolve("assets").resolve("packed.pak"), settings.getPropertyInt("assetcachesize") * 1024L * 1024L);
+	}
+	
+	//Loads (or rebuilds) the list of game assets ahead of the first lookup
+	protected synchronized void warm() throws IOException, StarDBException {
+		validate();
+	}
+	
+	protected boolean contains(final String name) throws IOException, StarDBException {
+		return getFileList().contains(name);
+	}
+	
+	protected byte[] getAsset(final String name) throws IOException, StarDBException {
+		
+		if (!getFileList().contains(name)) {
+			return null;
+		}
+		
+		byte[] data;
+		
+		synchronized (memory) {
+			data = memory.get(name);
+		}
+		
+		if (data != null) {
+			return data;
+		}
+		
+		data = disk.get(name);
+		
+		if (data == null) {
+			
+			log.debug("Retrieving asset {} from database.", name);
+			
+			synchronized (databaseLock) {
+				data = getDatabase().getAsset(name);
+			}
+			
+			disk.put(name, data);
+			
+		}
+		
+		remember(name, data);
+		
+		return data;
+		
+	}
+	
+	/*
+	 * Makes sure the file list belongs to the pak as it is now, reading it
+	 * from the saved index or, failing that, from the pak itself. This stats
+	 * the pak, so it's done once per install rather than on every lookup.
+	 */
+	protected synchronized void validate() throws IOException, StarDBException {
+		
+		if (Files.notExists(pak)) {
+			forget();
+			fingerprint = null;
+			fileList = new HashSet<>();
+			return;
+		}
+		
+		FileFingerprint current = FileFingerprint.of(pak);
+		
+		if (fileList != null && current.equals(fingerprint)) {
+			return;
+		}
+		
+		forget();
+		
+		String[] header = readIndexHeader();
+		
+		if (header != null && current.toString().equals(header[0])) {
+			loadIndex(current);
+			return;
+		}
+		
+		long checksum = FileHelper.getChecksum(pak);
+		
+		if (header != null && Long.toString(checksum).equals(header[1])) {
+			loadIndex(current);
+			writeIndex(checksum);
+			return;
+		}
+		
+		log.info("Game assets changed, rebuilding asset cache: {}", pak);
+		
+		disk.clear();
+		
+		Set<String> names;
+		
+		synchronized (databaseLock) {
+			names = new HashSet<>(getDatabase().getFileList());
+		}
+		
+		fingerprint = current;
+		fileList = names;
+		
+		writeIndex(checksum);
+		
+	}
+	
+	//Returns the file list as of the last validate(), validating it if there isn't one yet
+	private Set<String> getFileList() throws IOException, StarDBException {
+		
+		Set<String> names = fileList;
+		
+		if (names == null) {
+			validate();
+			names = fileList;
+		}
+		
+		return names;
+		
+	}
+	
+	//Must be called holding databaseLock
+	private AssetDatabase getDatabase() throws IOException, StarDBException {
+		
+		if (database == null) {
+			database = AssetDatabase.open(pak);
+		}
+		
+		return database;
+		
+	}
+	
+	private void forget() {
+		
+		fileList = null;
+		
+		synchronized (databaseLock) {
+			database = null;
+		}
+		
+		synchronized (memory) {
+			memory.clear();
+			memorySize = 0;
+		}
+		
+	}
+	
+	private void remember(final String name, final byte[] data) {
+		
+		if (data.length > MEMORY_BUDGET / 4) {
+			return;
+		}
+		
+		synchronized (memory) {
+			
+			memory.put(name, data);
+			memorySize += data.length;
+			
+			Iterator<byte[]> iterator = memory.values().iterator();
+			
+			while (memorySize > MEMORY_BUDGET && iterator.hasNext()) {
+				memorySize -= iterator.next().length;
+				iterator.remove();
+			}
+			
+		}
+		
+	}
+	
+	/*
+	 * Returns the fingerprint and checksum the index was written for, or null
+	 * if there is no usable index.
+	 */
+	private static String[] readIndexHeader() throws IOException {
+		
+		if (Files.notExists(INDEX_PATH)) {
+			return null;
+		}
+		
+		try (BufferedReader reader = Files.newBufferedReader(INDEX_PATH, StandardCharsets.UTF_8)) {
+			
+			String[] header = new String[] { reader.readLine(), reader.readLine() };
+			
+			if (header[0] == null || header[1] == null) {
+				return null;
+			}
+			
+			return header;
+			
+		}
+		
+	}
+	
+	private void loadIndex(final FileFingerprint current) throws IOException {
+		
+		Set<String> names = new HashSet<>();
+		
+		try (BufferedReader reader = Files.newBufferedReader(INDEX_PATH, StandardCharsets.UTF_8)) {
+			
+			reader.readLine();
+			reader.readLine();
+			
+			String line;
+			
+			while ((line = reader.readLine()) != null) {
+				names.add(line);
+			}
+			
+		}
+		
+		log.debug("Loaded {} asset names from cache.", names.size());
+		
+		fingerprint = current;
+		fileList = names;
+		
+	}
+	
+	private void writeIndex(final long checksum) throws IOException {
+		
+		Files.createDirectories(CACHE_FOLDER);
+		
+		try (BufferedWriter writer = Files.newBufferedWriter(INDEX_PATH, StandardCharsets.UTF_8)) {
+			
+			writer.write(fingerprint.toString());
+			writer.newLine();
+			writer.write(Long.toString(checksum));
+			writer.newLine();
+			
+			for (String name : fileList) {
+				writer.write(name);
+				writer.newLine();
+			}
+			
+		}
+		
+	}
+	
+}
@@ -0,0 +1,19 @@
+package net.krazyweb.starmodmanager.data;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/*
+ * The parts of a database implementation that work without the JavaFX
+ * tasks, used to copy everything from one backend to another.
+ */
+interface DatabaseBackend extends DatabaseModelInterface {
+	
+	public boolean exists();
+	public void open() throws SQLException, IOException;
+	public void close() throws SQLException, IOException;
+	
+	//Returns the mod as it is stored, without checking it against its archive
+	public Mod readMod(final String modName) throws SQLException, IOException;
+	
+}
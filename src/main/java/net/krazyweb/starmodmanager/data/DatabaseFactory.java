@@ -4,11 +4,20 @@ public class DatabaseFactory implements DatabaseModelFactory {
 	
 	private static DatabaseModelInterface instance;
 	
+	/*
+	 * HyperSQL is used unless the "starmodmanager.database" system property
+	 * is set to "keyvalue". The first time either backend is opened, it
+	 * copies over the data of the other one.
+	 */
 	@Override
 	public DatabaseModelInterface getInstance() {
 		if (instance == null) {
 			synchronized (DatabaseFactory.class) {
-				instance = new HyperSQLDatabase(new SettingsFactory());
+				if ("keyvalue".equals(System.getProperty("starmodmanager.database"))) {
+					instance = new KeyValueDatabase(new SettingsFactory());
+				} else {
+					instance = new HyperSQLDatabase(new SettingsFactory());
+				}
 			}
 		}
 		return instance;
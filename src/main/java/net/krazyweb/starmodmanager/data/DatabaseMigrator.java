@@ -0,0 +1,91 @@
+package net.krazyweb.starmodmanager.data;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Copies every mod and setting from one database backend to another. This
+ * is run when a backend is opened for the first time while the other one
+ * has data, so switching backends doesn't lose the mod list.
+ */
+class DatabaseMigrator {
+	
+	private static final Logger log = LogManager.getLogger(DatabaseMigrator.class);
+	
+	/*
+	 * Returns true if the backend has to be migrated into before it is used:
+	 * either it doesn't exist yet, or an earlier migration into it didn't
+	 * finish. The marker is written before the backend is created and only
+	 * removed by finishMigration(), so a migration that fails (e.g. because
+	 * the old database is locked) is retried on the next start instead of
+	 * leaving an empty mod list.
+	 */
+	protected static boolean startMigration(final DatabaseBackend to, final Path marker) throws IOException {
+		
+		if (Files.exists(marker)) {
+			log.info("An earlier migration into {} didn't finish, migrating again.", to.getClass().getSimpleName());
+			return true;
+		}
+		
+		if (to.exists()) {
+			return false;
+		}
+		
+		Files.createDirectories(marker.toAbsolutePath().getParent());
+		Files.createFile(marker);
+		
+		return true;
+		
+	}
+	
+	protected static void finishMigration(final Path marker) throws IOException {
+		Files.deleteIfExists(marker);
+	}
+	
+	protected static void migrate(final DatabaseBackend from, final DatabaseBackend to) throws SQLException, IOException {
+		
+		if (!from.exists()) {
+			return;
+		}
+		
+		log.info("Migrating database from {} to {}.", from.getClass().getSimpleName(), to.getClass().getSimpleName());
+		
+		from.open();
+		
+		try {
+			
+			int count = 0;
+			
+			for (String names : from.getModNames()) {
+				
+				//Each entry is "internalName\narchiveName"
+				Mod mod = from.readMod(names.split("\n")[0]);
+				
+				if (mod != null) {
+					to.updateMod(mod);
+					count++;
+				}
+				
+			}
+			
+			Map<String, String> properties = from.getProperties();
+			
+			for (Map.Entry<String, String> property : properties.entrySet()) {
+				to.setProperty(property.getKey(), property.getValue());
+			}
+			
+			log.info("Migrated {} mods and {} settings.", count, properties.size());
+			
+		} finally {
+			from.close();
+		}
+		
+	}
+	
+}
@@ -1,9 +1,11 @@
 package net.krazyweb.starmodmanager.data;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javafx.concurrent.Task;
 
@@ -13,11 +15,19 @@ public interface DatabaseModelInterface extends Observable {
 	public Task<Void> getCloseTask();
 	
 	public void updateMod(final Mod mod) throws SQLException;
+	public void updateOrders(final List<Mod> mods) throws SQLException;
 	public void deleteMod(final Mod mod) throws SQLException;
 	
 	public List<String> getModNames() throws SQLException;
 	public Mod getModByName(final String modName) throws SQLException, IOException;
 	
+	/*
+	 * Path queries only count installed mods that aren't hidden, and leave
+	 * out ignored and auto-merged files, the same as ModPathIndex.
+	 */
+	public Set<String> getModsWithFile(final Path path) throws SQLException;
+	public Set<Path> getConflictingFiles() throws SQLException;
+	
 	public Map<String, String> getProperties() throws SQLException;
 	public String getPropertyString(final String property, final String defaultValue);
 	public int getPropertyInt(final String property, final int defaultValue);
@@ -1,18 +1,24 @@
 package net.krazyweb.starmodmanager.data;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javafx.concurrent.Task;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
+import net.krazyweb.helpers.CanonicalPathSet;
 import net.krazyweb.helpers.FileHelper;
+import net.krazyweb.helpers.TaskScheduler;
+import net.krazyweb.helpers.TaskScheduler.Lane;
 import net.krazyweb.starmodmanager.data.Mod.ModOrderComparator;
 import net.krazyweb.starmodmanager.dialogue.MessageDialogue;
 import net.krazyweb.starmodmanager.dialogue.MessageDialogue.MessageType;
@@ -75,14 +81,16 @@ public class GetModListTask extends Task<Void> {
 
 		List<String> modsInDatabase = database.getModNames();
 		List<String> modNames = new ArrayList<>();
-		Set<String> currentArchives = new HashSet<>();
+		List<String> archiveNames = new ArrayList<>();
+		CanonicalPathSet currentArchives = new CanonicalPathSet();
 		
 		Set<Path> archives = new HashSet<>();
 		Set<Path> toRemove = new HashSet<>();
 		
 		for (final String modData : modsInDatabase) {
 			modNames.add(modData.split("\n")[0]);
-			currentArchives.add(settings.getPropertyPath("modsdir").resolve(modData.split("\n")[1]).toAbsolutePath().toString()); //TODO Better Path manipulation
+			archiveNames.add(modData.split("\n")[1]);
+			currentArchives.add(settings.getPropertyPath("modsdir").resolve(modData.split("\n")[1]));
 		}
 		
 		log.debug(modNames);
@@ -90,64 +98,61 @@ public class GetModListTask extends Task<Void> {
 		FileHelper.listFiles(settings.getPropertyString("modsdir"), archives); //TODO investigate using path
 		
 		for (Path path : archives) {
-			if (currentArchives.contains(path.toString())) {
+			if (currentArchives.contains(path)) {
 				toRemove.add(path);
 			}
 		}
 		
 		archives.removeAll(toRemove);
 		
-		int count = 1;
-		int total = modNames.size() + archives.size();
+		final int total = modNames.size() + archives.size();
 		
 		mods = new ArrayList<>();
 		
-		for (final String modName : modsInDatabase) {
-			Mod tempMod = null;
-			if ((tempMod = database.getModByName(modName.split("\n")[0])) != null) {
-				if (!tempMod.isHidden()) {
-					mods.add(tempMod);
-				}
-			}
-			this.updateProgress((double) count, (double) total);
-			count++;
-		}
+		int count = loadDatabaseMods(modsInDatabase, total);
 		
 		Collections.sort(mods, new ModOrderComparator());
 		
-		toRemove = new HashSet<>();
+		final CanonicalPathSet unusedArchives = new CanonicalPathSet(archives);
+		final List<Path> newArchives = new ArrayList<>(archives);
+		final int loaded = count;
 		
-		for (Path path : archives) {
-			
-			Set<Mod> tempMods = Mod.load(path, mods.size(), new SettingsFactory(), new DatabaseFactory(), new LocalizerFactory());
+		new ModImporter(new SettingsFactory(), new LocalizerFactory()).importFiles(newArchives, archiveNames, new ModImporter.ImportListener() {
 			
-			if (tempMods == null || tempMods.isEmpty()) {
-				recoverableErrorOccurred = true;
-				continue;
-			}
-			
-			for (Mod mod : tempMods) {
+			@Override
+			public void modFileImported(final int index, final Path file, final Set<Mod> tempMods, final int skipped) throws Exception {
 				
-				mods.add(mod);
+				if (tempMods.isEmpty() && skipped == 0) {
+					recoverableErrorOccurred = true;
+				}
+				
+				//The file holds a version of a mod that's already loaded, which the user may still want
+				if (skipped > 0 && unusedArchives.remove(file) != null) {
+					log.debug("File contains mods that already exist, will not delete: '{}'", file);
+				}
 				
-				for (Path path2 : archives) {
-					if (Files.isSameFile(settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()), path2)) {
-						toRemove.add(path2);
-					} else {
-						log.debug("File is used by mod manager, will not delete: '{}' = '{}'", settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()), path2);
+				for (Mod mod : tempMods) {
+					
+					mod.setOrder(mods.size());
+					database.updateMod(mod);
+					
+					mods.add(mod);
+					
+					Path used = unusedArchives.remove(settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()));
+					
+					if (used != null) {
+						log.debug("File is used by mod manager, will not delete: '{}'", used);
 					}
+					
 				}
 				
+				updateProgress((double) (loaded + index), (double) total);
+				
 			}
-
-			this.updateProgress((double) count, (double) total);
-			count++;
 			
-		}
-		
-		archives.removeAll(toRemove);
+		});
 		
-		for (Path path : archives) {
+		for (Path path : unusedArchives.getPaths()) {
 			log.debug("File is not used by mod manager, deleting: '{}'", path);
 			try {
 				FileHelper.deleteFile(path);
@@ -158,9 +163,10 @@ public class GetModListTask extends Task<Void> {
 		
 		for (Mod mod : mods) {
 			mod.setOrder(mods.indexOf(mod));
-			database.updateMod(mod);
 		}
 		
+		database.updateOrders(mods);
+		
 		this.updateProgress(1.0, 1.0);
 		
 		/*
@@ -174,4 +180,81 @@ public class GetModListTask extends Task<Void> {
 		
 	}
 	
-}
\ No newline at end of file
+	/*
+	 * Reads every mod in the database and verifies it against its archive.
+	 * Checksumming (and re-parsing changed archives) is the slow part, so the
+	 * mods are verified in parallel. Results are collected in database order
+	 * before being sorted, so the final order is the same as a serial load.
+	 * 
+	 * Mods in the snapshot written on the last clean exit are taken from it
+	 * instead, and only read from the database if they aren't in it.
+	 */
+	private int loadDatabaseMods(final List<String> modsInDatabase, final int total) throws Exception {
+		
+		final Map<String, Mod> snapshot = ModListSnapshot.read(settings.getPropertyString(ModListSnapshot.SETTING));
+		
+		//Anything changed from here on isn't in the snapshot, so it can't be used again
+		settings.setProperty(ModListSnapshot.SETTING, "");
+		
+		log.debug("Mods in snapshot: {}", snapshot.size());
+		
+		List<Future<Mod>> futures = new ArrayList<>();
+		Mod[] results = new Mod[modsInDatabase.size()];
+		
+		int count = 1;
+		
+		try {
+			
+			for (int i = 0; i < modsInDatabase.size(); i++) {
+				
+				final String modName = modsInDatabase.get(i).split("\n")[0];
+				
+				futures.add(TaskScheduler.submit(Lane.CPU, "Verify Mod", new Callable<Mod>() {
+					@Override
+					public Mod call() throws Exception {
+						
+						Mod mod = snapshot.get(modName);
+						
+						if (mod != null) {
+							return ModVerifier.verify(mod, database, settings);
+						}
+						
+						return database.getModByName(modName);
+						
+					}
+				}));
+				
+			}
+			
+			for (int i = 0; i < modsInDatabase.size(); i++) {
+				
+				try {
+					results[i] = futures.get(i).get();
+				} catch (final ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+				
+				this.updateProgress((double) count, (double) total);
+				count++;
+				
+			}
+			
+		} finally {
+			//Only does anything if a mod failed to load
+			TaskScheduler.cancel(futures);
+		}
+		
+		for (Mod mod : results) {
+			if (mod != null && !mod.isHidden()) {
+				mods.add(mod);
+			}
+		}
+		
+		return count;
+		
+	}
+	
+}
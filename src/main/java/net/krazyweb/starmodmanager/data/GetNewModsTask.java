@@ -1,6 +1,5 @@
 package net.krazyweb.starmodmanager.data;
 
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -9,6 +8,7 @@ import java.util.Set;
 import javafx.concurrent.Task;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
+import net.krazyweb.helpers.CanonicalPathSet;
 import net.krazyweb.helpers.FileHelper;
 import net.krazyweb.starmodmanager.dialogue.MessageDialogue;
 import net.krazyweb.starmodmanager.dialogue.MessageDialogue.MessageType;
@@ -64,13 +64,17 @@ public class GetNewModsTask extends Task<Void> {
 		
 		FileHelper.listFiles(settings.getPropertyPath("modsdir"), files);
 		
+		CanonicalPathSet currentArchives = new CanonicalPathSet();
+		
+		for (Mod m : modList.getMods()) {
+			currentArchives.add(settings.getPropertyPath("modsdir").resolve(m.getArchiveName()));
+		}
+		
 		Set<Path> toRemove = new HashSet<>();
 		
 		for (Path p : files) {
-			for (Mod m : modList.getMods()) {
-				if (Files.isSameFile(settings.getPropertyPath("modsdir").resolve(m.getArchiveName()), p)) {
-					toRemove.add(p);
-				}
+			if (currentArchives.contains(p)) {
+				toRemove.add(p);
 			}
 		}
 		
@@ -1,8 +1,8 @@
 package net.krazyweb.starmodmanager.data;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -20,7 +20,7 @@ import java.util.Set;
 import javafx.concurrent.Task;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
-import net.krazyweb.helpers.FileHelper;
+import net.krazyweb.helpers.FileFingerprint;
 import net.krazyweb.starmodmanager.dialogue.MessageDialogue;
 import net.krazyweb.starmodmanager.dialogue.MessageDialogue.MessageType;
 
@@ -28,14 +28,26 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 
-public class HyperSQLDatabase implements DatabaseModelInterface {
+public class HyperSQLDatabase implements DatabaseBackend {
 	
 	private static final Logger log = LogManager.getLogger(HyperSQLDatabase.class);
 	
 	private static final String MOD_TABLE_NAME = "mods";
+	private static final String MOD_FILES_TABLE_NAME = "mod_files";
 	private static final String SETTINGS_TABLE_NAME = "settings";
 	
+	private static final String MIGRATION_MARKER = "db.migrating";
+	
+	private Path folder;
 	private Connection connection;
+	
+	/*
+	 * Prepared statements are kept for the whole session, keyed by their
+	 * query, instead of being prepared (and leaked) on every call. They are
+	 * only used while holding the lock on this object and closed along with
+	 * the connection.
+	 */
+	private Map<String, PreparedStatement> statements = new HashMap<>();
 
 	private SettingsModelInterface settings;
 	private SettingsModelFactory settingsFactory;
@@ -43,8 +55,13 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 	private Set<Observer> observers;
 	
 	protected HyperSQLDatabase(final SettingsModelFactory settingsFactory) {
+		this(settingsFactory, Paths.get("data"));
+	}
+	
+	protected HyperSQLDatabase(final SettingsModelFactory settingsFactory, final Path folder) {
 		observers = new HashSet<>();
 		this.settingsFactory = settingsFactory;
+		this.folder = folder;
 	}
 	
 	@Override
@@ -60,12 +77,18 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 				this.updateMessage("Connecting to Database");
 				this.updateProgress(0.0, 2.0);
 				
-				connection = DriverManager.getConnection("jdbc:hsqldb:file:" + new File("").getAbsolutePath().replaceAll("\\\\", "/") + "/data/db", "SA", "");
+				Path marker = folder.resolve(MIGRATION_MARKER);
+				boolean migrate = DatabaseMigrator.startMigration(HyperSQLDatabase.this, marker);
+				
+				open();
 
-				this.updateMessage("Creating Default Tables");
 				this.updateProgress(1.0, 2.0);
-
-				createTables();
+				
+				if (migrate) {
+					this.updateMessage("Migrating Database");
+					DatabaseMigrator.migrate(new KeyValueDatabase(settingsFactory, folder), HyperSQLDatabase.this);
+					DatabaseMigrator.finishMigration(marker);
+				}
 				
 				this.updateProgress(2.0, 2.0);
 				
@@ -103,8 +126,10 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 			@Override
 			protected Void call() throws Exception {
 
-				connection.commit();
-				connection.close();
+				//Settings changes are written in the background and may not have reached the database yet
+				settings.flush();
+				
+				close();
 				
 				return null;
 				
@@ -123,6 +148,30 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 		
 	}
 	
+	@Override
+	public boolean exists() {
+		return Files.exists(folder.resolve("db.properties"));
+	}
+	
+	@Override
+	public synchronized void open() throws SQLException {
+		
+		connection = DriverManager.getConnection("jdbc:hsqldb:file:" + folder.toAbsolutePath().toString().replaceAll("\\\\", "/") + "/db;shutdown=true", "SA", "");
+		
+		createTables();
+		
+	}
+	
+	@Override
+	public synchronized void close() throws SQLException {
+		
+		closeStatements();
+		
+		connection.commit();
+		connection.close();
+		
+	}
+	
 	private void createTables() throws SQLException {
 		
 		StringBuilder sb = new StringBuilder();
@@ -139,11 +188,11 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 		sb.append("description VARCHAR(65535) DEFAULT NULL, ");
 		sb.append("url VARCHAR(255) DEFAULT NULL, ");
 		sb.append("checksum BIGINT NOT NULL, ");
+		sb.append("fingerprint VARCHAR(1024) DEFAULT NULL, "); //"size:lastmodified:filekey"
 		sb.append("loadOrder INT NOT NULL, ");
 		sb.append("hidden BIT NOT NULL, ");
 		sb.append("installed BIT NOT NULL, ");
 		sb.append("dependencies VARCHAR(16777215) DEFAULT NULL, "); //"internalName\ninternalName\ninternalName"
-		sb.append("files VARCHAR(16777215) NOT NULL, "); //"filepath::json::ignored::automerge\nfilepath::json::ignored::automerge"
 		sb.append("PRIMARY KEY (internalName)");
 		sb.append(");");
 
@@ -152,6 +201,57 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 
 		log.debug("'{}' executed.", sb);
 		
+		//Databases created before fingerprints were stored are missing the column
+		if (!connection.getMetaData().getColumns(null, null, MOD_TABLE_NAME.toUpperCase(), "FINGERPRINT").next()) {
+			
+			sb = new StringBuilder();
+			sb.append("ALTER TABLE ");
+			sb.append(MOD_TABLE_NAME);
+			sb.append(" ADD COLUMN fingerprint VARCHAR(1024) DEFAULT NULL");
+			
+			tableCreator.execute(sb.toString());
+			
+			log.debug("'{}' executed.", sb);
+			
+		}
+		
+		sb = new StringBuilder();
+		sb.append("CREATE TABLE IF NOT EXISTS ");
+		sb.append(MOD_FILES_TABLE_NAME);
+		sb.append(" (");
+		sb.append("internalName VARCHAR(255) NOT NULL, ");
+		sb.append("path VARCHAR(4096) NOT NULL, ");
+		sb.append("json BIT NOT NULL, ");
+		sb.append("ignored BIT NOT NULL, ");
+		sb.append("autoMerged BIT NOT NULL, ");
+		sb.append("hash VARCHAR(32) DEFAULT NULL, ");
+		sb.append("PRIMARY KEY (internalName, path), ");
+		sb.append("FOREIGN KEY (internalName) REFERENCES ").append(MOD_TABLE_NAME).append(" (internalName) ON DELETE CASCADE");
+		sb.append(");");
+		
+		tableCreator.execute(sb.toString());
+		
+		log.debug("'{}' executed.", sb);
+		
+		//The primary key covers lookups by mod; this one covers lookups by path
+		if (!hasIndex(MOD_FILES_TABLE_NAME, "mod_files_path")) {
+			
+			sb = new StringBuilder();
+			sb.append("CREATE INDEX mod_files_path ON ");
+			sb.append(MOD_FILES_TABLE_NAME);
+			sb.append(" (path)");
+			
+			tableCreator.execute(sb.toString());
+			
+			log.debug("'{}' executed.", sb);
+			
+		}
+		
+		//Databases created before the mod_files table existed store every file of a mod in a single column
+		if (connection.getMetaData().getColumns(null, null, MOD_TABLE_NAME.toUpperCase(), "FILES").next()) {
+			migrateFilesColumn();
+		}
+		
 		sb = new StringBuilder();
 		sb.append("CREATE TABLE IF NOT EXISTS ");
 		sb.append(SETTINGS_TABLE_NAME);
@@ -163,18 +263,169 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 
 		tableCreator.execute(sb.toString());
 		
-		tableCreator.closeOnCompletion();
+		tableCreator.close();
 
 		log.debug("'{}' executed.", sb);
 		
 	}
 	
+	/*
+	 * Moves the contents of the old "files" column into the mod_files table
+	 * and drops the column. The column held one line per file in the format
+	 * "filepath:::json:::ignored:::automerge[:::hash]".
+	 */
+	private void migrateFilesColumn() throws SQLException {
+		
+		log.info("Migrating mod files to the {} table.", MOD_FILES_TABLE_NAME);
+		
+		connection.setAutoCommit(false);
+		
+		try {
+			
+			Statement modQuery = connection.createStatement();
+			ResultSet results = modQuery.executeQuery("SELECT internalName, files FROM " + MOD_TABLE_NAME);
+			
+			while (results.next()) {
+				
+				Set<ModFile> files = new HashSet<>();
+				
+				for (String data : results.getString("files").split("\n")) {
+					
+					if (data.isEmpty()) {
+						continue;
+					}
+					
+					String[] fields = data.split(":::");
+					
+					ModFile file = new ModFile();
+					
+					file.setPath(Paths.get(fields[0]));
+					file.setJson(Boolean.parseBoolean(fields[1]));
+					file.setIgnored(Boolean.parseBoolean(fields[2]));
+					file.setAutoMerged(Boolean.parseBoolean(fields[3]));
+					
+					if (fields.length > 4 && !fields[4].equals("null")) {
+						file.setHash(fields[4]);
+					}
+					
+					files.add(file);
+					
+				}
+				
+				writeFiles(results.getString("internalName"), files);
+				
+			}
+			
+			results.close();
+			
+			modQuery.execute("ALTER TABLE " + MOD_TABLE_NAME + " DROP COLUMN files");
+			modQuery.close();
+			
+			connection.commit();
+			
+		} catch (final SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(true);
+		}
+		
+	}
+	
+	private void writeFiles(final String internalName, final Set<ModFile> files) throws SQLException {
+		
+		StringBuilder query = new StringBuilder();
+		query.append("DELETE FROM ").append(MOD_FILES_TABLE_NAME);
+		query.append(" WHERE internalName = ?");
+		
+		PreparedStatement deleteFiles = prepare(query.toString());
+		deleteFiles.setString(1, internalName);
+		deleteFiles.execute();
+		
+		//HyperSQL refuses to execute an empty batch
+		if (files.isEmpty()) {
+			return;
+		}
+		
+		query = new StringBuilder();
+		query.append("INSERT INTO ");
+		query.append(MOD_FILES_TABLE_NAME).append("(");
+		query.append("internalName,");
+		query.append("path,");
+		query.append("json,");
+		query.append("ignored,");
+		query.append("autoMerged,");
+		query.append("hash");
+		query.append(") VALUES(?, ?, ?, ?, ?, ?);");
+		
+		PreparedStatement statement = prepare(query.toString());
+		
+		for (ModFile file : files) {
+			statement.setString(1, internalName);
+			statement.setString(2, file.getPath().toString());
+			statement.setInt(3, file.isJson() ? 1 : 0);
+			statement.setInt(4, file.isIgnored() ? 1 : 0);
+			statement.setInt(5, file.isAutoMerged() ? 1 : 0);
+			statement.setString(6, file.getHash());
+			statement.addBatch();
+		}
+		
+		statement.executeBatch();
+		log.trace("{} files written for '{}'.", files.size(), internalName);
+		
+	}
+	
+	/*
+	 * The files of a mod only change along with its archive, so they are
+	 * left alone when the checksum is the same as the stored one. Files
+	 * stored before their hashes were known are rewritten once hashes are
+	 * available.
+	 */
+	private boolean filesChanged(final Mod mod) throws SQLException {
+		
+		StringBuilder query = new StringBuilder();
+		
+		query.append("SELECT checksum, (SELECT COUNT(*) FROM ");
+		query.append(MOD_FILES_TABLE_NAME);
+		query.append(" WHERE internalName = ? AND hash IS NULL) FROM ");
+		query.append(MOD_TABLE_NAME);
+		query.append(" WHERE internalName = ?");
+		
+		PreparedStatement modQuery = prepare(query.toString());
+		modQuery.setString(1, mod.getInternalName());
+		modQuery.setString(2, mod.getInternalName());
+		
+		ResultSet results = modQuery.executeQuery();
+		
+		boolean changed = true;
+		
+		if (results.next()) {
+			
+			changed = results.getLong(1) != mod.getChecksum();
+			
+			if (!changed && results.getInt(2) > 0) {
+				for (ModFile file : mod.getFiles()) {
+					if (file.getHash() != null) {
+						changed = true;
+						break;
+					}
+				}
+			}
+			
+		}
+		
+		results.close();
+		
+		return changed;
+		
+	}
+	
 	/* 
 	 * updateMod() is used for both updating and adding mods.
-	 * It picks the right one for the mod in question.
+	 * A single MERGE inserts the row or updates the existing one.
 	 */
 	@Override
-	public void updateMod(final Mod mod) throws SQLException {
+	public synchronized void updateMod(final Mod mod) throws SQLException {
 		
 		StringBuilder dependencyList = new StringBuilder();
 		
@@ -182,83 +433,55 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 			dependencyList.append(dependency).append("\n");
 		}
 		
-		StringBuilder fileList = new StringBuilder();
-		
-		for (ModFile file : mod.getFiles()) {
-			fileList
-			.append(file.getPath()).append(":::")
-			.append(file.isJson()).append(":::")
-			.append(file.isIgnored()).append(":::")
-			.append(file.isAutoMerged()).append("\n");
-		}
+		String fingerprint = mod.getFingerprint() == null ? null : mod.getFingerprint().toString();
 		
 		StringBuilder query = new StringBuilder();
-
-		if (containsMod(mod)) {
-
-			query.append("UPDATE ");
-			query.append(MOD_TABLE_NAME);
-			query.append(" SET ");
-			
-			query.append("internalName = ?,");
-			query.append("archiveName = ?,");
-			query.append("displayName = ?,");
-			query.append("modVersion = ?,");
-			query.append("gameVersion = ?,");
-			query.append("author = ?,");
-			query.append("description = ?,");
-			query.append("url = ?,");
-			query.append("checksum = ?,");
-			query.append("loadOrder = ?,");
-			query.append("hidden = ?,");
-			query.append("installed = ?,");
-			query.append("dependencies = ?,");
-			query.append("files = ?");
-			query.append("WHERE internalName = ?");
-			
-			PreparedStatement statement = connection.prepareStatement(query.toString());
+		
+		query.append("MERGE INTO ");
+		query.append(MOD_TABLE_NAME);
+		query.append(" USING (VALUES(");
+		query.append("CAST(? AS VARCHAR(255)), ");
+		query.append("CAST(? AS VARCHAR(255)), ");
+		query.append("CAST(? AS VARCHAR(255)), ");
+		query.append("CAST(? AS VARCHAR(255)), ");
+		query.append("CAST(? AS VARCHAR(255)), ");
+		query.append("CAST(? AS VARCHAR(255)), ");
+		query.append("CAST(? AS VARCHAR(65535)), ");
+		query.append("CAST(? AS VARCHAR(255)), ");
+		query.append("CAST(? AS BIGINT), ");
+		query.append("CAST(? AS VARCHAR(1024)), ");
+		query.append("CAST(? AS INT), ");
+		query.append("CAST(? AS BIT), ");
+		query.append("CAST(? AS BIT), ");
+		query.append("CAST(? AS VARCHAR(16777215))");
+		query.append(")) AS v(internalName, archiveName, displayName, modVersion, gameVersion, author, description, url, checksum, fingerprint, loadOrder, hidden, installed, dependencies)");
+		query.append(" ON ").append(MOD_TABLE_NAME).append(".internalName = v.internalName");
+		query.append(" WHEN MATCHED THEN UPDATE SET ");
+		query.append("archiveName = v.archiveName,");
+		query.append("displayName = v.displayName,");
+		query.append("modVersion = v.modVersion,");
+		query.append("gameVersion = v.gameVersion,");
+		query.append("author = v.author,");
+		query.append("description = v.description,");
+		query.append("url = v.url,");
+		query.append("checksum = v.checksum,");
+		query.append("fingerprint = v.fingerprint,");
+		query.append("loadOrder = v.loadOrder,");
+		query.append("hidden = v.hidden,");
+		query.append("installed = v.installed,");
+		query.append("dependencies = v.dependencies");
+		query.append(" WHEN NOT MATCHED THEN INSERT ");
+		query.append("(internalName, archiveName, displayName, modVersion, gameVersion, author, description, url, checksum, fingerprint, loadOrder, hidden, installed, dependencies)");
+		query.append(" VALUES v.internalName, v.archiveName, v.displayName, v.modVersion, v.gameVersion, v.author, v.description, v.url, v.checksum, v.fingerprint, v.loadOrder, v.hidden, v.installed, v.dependencies");
+		
+		//The mod row and its files are written together, or not at all
+		connection.setAutoCommit(false);
+		
+		try {
 			
-			statement.setString(1, mod.getInternalName());
-			statement.setString(2, mod.getArchiveName());
-			statement.setString(3, mod.getDisplayName());
-			statement.setString(4, mod.getModVersion());
-			statement.setString(5, mod.getGameVersion());
-			statement.setString(6, mod.getAuthor());
-			statement.setString(7, mod.getDescription());
-			statement.setString(8, mod.getURL());
-			statement.setLong(9, mod.getChecksum());
-			statement.setInt(10, mod.getOrder());
-			statement.setInt(11, mod.isHidden() ? 1 : 0);
-			statement.setInt(12, mod.isInstalled() ? 1 : 0);
-			statement.setString(13, dependencyList.toString());
-			statement.setString(14, fileList.toString());
-			statement.setString(15, mod.getInternalName());
+			boolean filesChanged = filesChanged(mod);
 			
-			statement.executeUpdate();
-			log.trace("Statement Executed: {}", statement);
-			statement.closeOnCompletion();
-			
-		} else {
-			
-			query.append("INSERT INTO ");
-			query.append(MOD_TABLE_NAME).append("(");
-			query.append("internalName,");
-			query.append("archiveName,");
-			query.append("displayName,");
-			query.append("modVersion,");
-			query.append("gameVersion,");
-			query.append("author,");
-			query.append("description,");
-			query.append("url,");
-			query.append("checksum,");
-			query.append("loadOrder,");
-			query.append("hidden,");
-			query.append("installed,");
-			query.append("dependencies,");
-			query.append("files");
-			query.append(") VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);");
-			
-			PreparedStatement statement = connection.prepareStatement(query.toString());
+			PreparedStatement statement = prepare(query.toString());
 			
 			statement.setString(1, mod.getInternalName());
 			statement.setString(2, mod.getArchiveName());
@@ -269,101 +492,99 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 			statement.setString(7, mod.getDescription());
 			statement.setString(8, mod.getURL());
 			statement.setLong(9, mod.getChecksum());
-			statement.setInt(10, mod.getOrder());
-			statement.setInt(11, mod.isHidden() ? 1 : 0);
-			statement.setInt(12, mod.isInstalled() ? 1 : 0);
+			statement.setString(10, fingerprint);
+			statement.setInt(11, mod.getOrder());
+			statement.setInt(12, mod.isHidden() ? 1 : 0);
+			statement.setInt(13, mod.isInstalled() ? 1 : 0);
 			
 			if (dependencyList.toString().isEmpty()) {
-				statement.setString(13, "NULL");
+				statement.setString(14, "NULL");
 			} else {
-				statement.setString(13, dependencyList.toString());
+				statement.setString(14, dependencyList.toString());
 			}
-
-			statement.setString(14, fileList.toString());
 			
-			statement.execute();
+			statement.executeUpdate();
 			log.trace("Statement Executed: {}", statement);
-			statement.closeOnCompletion();
 			
+			if (filesChanged) {
+				writeFiles(mod.getInternalName(), mod.getFiles());
+			}
+			
+			connection.commit();
+			
+		} catch (final SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(true);
 		}
 		
 	}
 	
+	/*
+	 * Only writes the load order of each mod, in a single batch. Used when
+	 * the order changes without anything else about the mods changing.
+	 */
 	@Override
-	public void deleteMod(final Mod mod) throws SQLException {
-		
-		StringBuilder query = new StringBuilder();
-		query.append("DELETE FROM ").append(MOD_TABLE_NAME);
-		query.append(" WHERE internalName = ?");
-
-		PreparedStatement deleteMod = connection.prepareStatement(query.toString());
-		deleteMod.setString(1, mod.getInternalName());
-		log.trace("Statement Executed: {}", query);
-		deleteMod.execute();
-		deleteMod.closeOnCompletion();
+	public synchronized void updateOrders(final List<Mod> mods) throws SQLException {
 		
-	}
-	
-	private boolean containsMod(final Mod mod) throws SQLException {
+		if (mods.isEmpty()) {
+			return;
+		}
 		
 		StringBuilder query = new StringBuilder();
 		
-		query.append("SELECT internalName FROM ");
+		query.append("UPDATE ");
 		query.append(MOD_TABLE_NAME);
+		query.append(" SET loadOrder = ?");
 		query.append(" WHERE internalName = ?");
-		query.append(" LIMIT 1");
 		
-		PreparedStatement modQuery = connection.prepareStatement(query.toString());
-		modQuery.setString(1, mod.getInternalName());
+		connection.setAutoCommit(false);
 		
-		ResultSet results = modQuery.executeQuery();
-
-		log.trace("Statement Executed: {}", query);
-		
-		if (!hasRows(results)) {
-			results.close();
-			modQuery.close();
-			return false;
+		try {
+			
+			PreparedStatement statement = prepare(query.toString());
+			
+			for (Mod mod : mods) {
+				statement.setInt(1, mod.getOrder());
+				statement.setString(2, mod.getInternalName());
+				statement.addBatch();
+			}
+			
+			statement.executeBatch();
+			log.trace("{} load orders written.", mods.size());
+			
+			connection.commit();
+			
+		} catch (final SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(true);
 		}
 		
-		results.close();
-		modQuery.close();
-		
-		return true;
-		
 	}
 	
-	private boolean containsProperty(final String property) throws SQLException {
+	/*
+	 * The files of the mod are removed along with it by the foreign key on
+	 * the mod_files table.
+	 */
+	@Override
+	public synchronized void deleteMod(final Mod mod) throws SQLException {
 		
 		StringBuilder query = new StringBuilder();
-		
-		query.append("SELECT property FROM ");
-		query.append(SETTINGS_TABLE_NAME);
-		query.append(" WHERE property = ?");
-		query.append(" LIMIT 1");
-		
-		PreparedStatement modQuery = connection.prepareStatement(query.toString());
-		modQuery.setString(1, property);
-		
-		ResultSet results = modQuery.executeQuery();
+		query.append("DELETE FROM ").append(MOD_TABLE_NAME);
+		query.append(" WHERE internalName = ?");
 
+		PreparedStatement deleteMod = prepare(query.toString());
+		deleteMod.setString(1, mod.getInternalName());
 		log.trace("Statement Executed: {}", query);
-		
-		if (!hasRows(results)) {
-			results.close();
-			modQuery.close();
-			return false;
-		}
-		
-		results.close();
-		modQuery.close();
-		
-		return true;
+		deleteMod.execute();
 		
 	}
 	
 	@Override
-	public List<String> getModNames() throws SQLException {
+	public synchronized List<String> getModNames() throws SQLException {
 
 		List<String> output = new ArrayList<>();
 		
@@ -372,7 +593,7 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 		query.append("SELECT * FROM ");
 		query.append(MOD_TABLE_NAME);
 		
-		PreparedStatement modQuery = connection.prepareStatement(query.toString());
+		PreparedStatement modQuery = prepare(query.toString());
 		
 		ResultSet results = modQuery.executeQuery();
 
@@ -382,12 +603,14 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 			}
 		}
 		
+		results.close();
+		
 		return output;
 		
 	}
 	
 	@Override
-	public Mod getModByName(final String modName) throws SQLException, IOException {
+	public synchronized Mod readMod(final String modName) throws SQLException {
 		
 		Mod output = null;
 		
@@ -398,7 +621,7 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 		query.append(" WHERE internalName = ?");
 		query.append(" LIMIT 1");
 		
-		PreparedStatement modQuery = connection.prepareStatement(query.toString());
+		PreparedStatement modQuery = prepare(query.toString());
 		modQuery.setString(1, modName);
 		
 		ResultSet results = modQuery.executeQuery();
@@ -422,6 +645,7 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 			mod.setDescription(results.getString("description"));
 			mod.setURL(results.getString("url"));
 			mod.setChecksum(results.getLong("checksum"));
+			mod.setFingerprint(FileFingerprint.fromString(results.getString("fingerprint")));
 			mod.setOrder(results.getInt("loadOrder"));
 			mod.setHidden(results.getInt("hidden") == 1);
 			mod.setInstalled(results.getInt("installed") == 1);
@@ -433,55 +657,142 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 			}
 			
 			mod.setDependencies(dependencies);
+			mod.setFiles(readFiles(modName));
 			
-			Set<ModFile> files = new HashSet<>();
-			
-			for (String data : results.getString("files").split("\n")) {
-				
-				String[] fields = data.split(":::");
-				
-				ModFile file = new ModFile();
-				
-				file.setPath(Paths.get(fields[0]));
-				file.setJson(Boolean.parseBoolean(fields[1]));
-				file.setIgnored(Boolean.parseBoolean(fields[2]));
-				file.setAutoMerged(Boolean.parseBoolean(fields[3]));
-				
-				files.add(file);
-				
-			}
-			
-			mod.setFiles(files);
+			output = mod;
 			
-			if (Files.notExists(settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()))) {
-				deleteMod(mod);
-				return null;
-			}
+		}
+		
+		results.close();
+		
+		return output;
+		
+	}
+	
+	private Set<ModFile> readFiles(final String modName) throws SQLException {
+		
+		Set<ModFile> files = new HashSet<>();
+		
+		StringBuilder query = new StringBuilder();
+		
+		query.append("SELECT * FROM ");
+		query.append(MOD_FILES_TABLE_NAME);
+		query.append(" WHERE internalName = ?");
+		
+		PreparedStatement fileQuery = prepare(query.toString());
+		fileQuery.setString(1, modName);
+		
+		ResultSet results = fileQuery.executeQuery();
+		
+		log.trace("Statement Executed: {}", query);
+		
+		while (results.next()) {
 			
-			Set<Mod> mods = null;
+			ModFile file = new ModFile();
 			
-			long checksum = FileHelper.getChecksum(settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()));
+			file.setPath(Paths.get(results.getString("path")));
+			file.setJson(results.getInt("json") == 1);
+			file.setIgnored(results.getInt("ignored") == 1);
+			file.setAutoMerged(results.getInt("autoMerged") == 1);
+			file.setHash(results.getString("hash"));
 			
-			if (mod.getChecksum() != checksum) {
-				log.debug("Mod file checksum mismatch: {} ({})", mod.getArchiveName(), mod.getChecksum());
-				mods = Mod.load(settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()), mod.getOrder(), new SettingsFactory(), new DatabaseFactory(), new LocalizerFactory());
-			} else {
-				mods = new HashSet<>();
-				mods.add(mod);
-			}
+			files.add(file);
 			
-			output = mod;
-
 		}
 		
 		results.close();
-		modQuery.closeOnCompletion();
+		
+		return files;
+		
+	}
+	
+	@Override
+	public synchronized Set<String> getModsWithFile(final Path path) throws SQLException {
+		
+		Set<String> output = new HashSet<>();
+		
+		StringBuilder query = new StringBuilder();
+		
+		query.append("SELECT f.internalName FROM ");
+		query.append(MOD_FILES_TABLE_NAME).append(" f JOIN ");
+		query.append(MOD_TABLE_NAME).append(" m ON m.internalName = f.internalName");
+		query.append(" WHERE f.path = ?");
+		query.append(" AND f.ignored = 0 AND f.autoMerged = 0");
+		query.append(" AND m.installed = 1 AND m.hidden = 0");
+		
+		PreparedStatement fileQuery = prepare(query.toString());
+		fileQuery.setString(1, path.toString());
+		
+		ResultSet results = fileQuery.executeQuery();
+		
+		log.trace("Statement Executed: {}", query);
+		
+		while (results.next()) {
+			output.add(results.getString(1));
+		}
+		
+		results.close();
+		
+		return output;
+		
+	}
+	
+	/*
+	 * A path is only a conflict when the mods replacing it don't all ship
+	 * the same contents. Files without a known hash always count as different.
+	 */
+	@Override
+	public synchronized Set<Path> getConflictingFiles() throws SQLException {
+		
+		Set<Path> output = new HashSet<>();
+		
+		StringBuilder query = new StringBuilder();
+		
+		query.append("SELECT f.path FROM ");
+		query.append(MOD_FILES_TABLE_NAME).append(" f JOIN ");
+		query.append(MOD_TABLE_NAME).append(" m ON m.internalName = f.internalName");
+		query.append(" WHERE f.ignored = 0 AND f.autoMerged = 0");
+		query.append(" AND m.installed = 1 AND m.hidden = 0");
+		query.append(" AND f.path NOT LIKE '%.modinfo'");
+		query.append(" GROUP BY f.path");
+		query.append(" HAVING COUNT(*) > 1");
+		query.append(" AND (COUNT(DISTINCT f.hash) > 1 OR COUNT(f.hash) < COUNT(*))");
+		
+		PreparedStatement fileQuery = prepare(query.toString());
+		
+		ResultSet results = fileQuery.executeQuery();
+		
+		log.trace("Statement Executed: {}", query);
+		
+		while (results.next()) {
+			output.add(Paths.get(results.getString(1)));
+		}
+		
+		results.close();
 		
 		return output;
 		
 	}
 	
-	private String getSettingsValue(final String property) throws SQLException {
+	/*
+	 * Only reading the row holds the connection lock. The checksum of the
+	 * archive (and re-parsing it when it has changed) is done outside of it,
+	 * so several mods can be verified at the same time.
+	 */
+	@Override
+	public Mod getModByName(final String modName) throws SQLException, IOException {
+		
+		Mod mod = readMod(modName);
+		
+		if (mod == null) {
+			return null;
+		}
+		
+		return ModVerifier.verify(mod, this, settings);
+		
+	}
+	
+	private synchronized String getSettingsValue(final String property) throws SQLException {
 
 		StringBuilder query = new StringBuilder();
 		
@@ -490,7 +801,7 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 		query.append(" WHERE property = ?");
 		query.append(" LIMIT 1");
 		
-		PreparedStatement propertyQuery = connection.prepareStatement(query.toString());
+		PreparedStatement propertyQuery = prepare(query.toString());
 		propertyQuery.setString(1, property);
 		
 		log.trace("Statement Executed: {}", propertyQuery);
@@ -507,14 +818,13 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 		}
 		
 		results.close();
-		propertyQuery.closeOnCompletion();
 		
 		return output;
 		
 	}
 	
 	@Override
-	public Map<String, String> getProperties() throws SQLException {
+	public synchronized Map<String, String> getProperties() throws SQLException {
 		
 		Map<String, String> properties = new HashMap<>();
 
@@ -523,7 +833,7 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 		query.append("SELECT * FROM ");
 		query.append(SETTINGS_TABLE_NAME);
 		
-		PreparedStatement propertyQuery = connection.prepareStatement(query.toString());
+		PreparedStatement propertyQuery = prepare(query.toString());
 		
 		log.trace("Statement Executed: " + propertyQuery.toString());
 		
@@ -537,7 +847,6 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 		}
 		
 		results.close();
-		propertyQuery.closeOnCompletion();
 		
 		return properties;
 		
@@ -568,47 +877,26 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 	}
 	
 	@Override
-	public void setProperty(final String property, Object value) {
+	public synchronized void setProperty(final String property, Object value) {
 
 		StringBuilder query = new StringBuilder();
 		
-		try {
+		query.append("MERGE INTO ");
+		query.append(SETTINGS_TABLE_NAME);
+		query.append(" USING (VALUES(CAST(? AS VARCHAR(65535)), CAST(? AS VARCHAR(65535)))) AS v(property, value)");
+		query.append(" ON ").append(SETTINGS_TABLE_NAME).append(".property = v.property");
+		query.append(" WHEN MATCHED THEN UPDATE SET value = v.value");
+		query.append(" WHEN NOT MATCHED THEN INSERT (property, value) VALUES v.property, v.value");
 		
-			if (containsProperty(property)) {
-	
-				query.append("UPDATE ");
-				query.append(SETTINGS_TABLE_NAME);
-				query.append(" SET ");
-				query.append("value = ?");
-				query.append("WHERE property = ?");
-				
-				PreparedStatement statement = connection.prepareStatement(query.toString());
-				
-				statement.setString(1, value.toString());
-				statement.setString(2, property);
-				
-				statement.executeUpdate();
-				log.trace("Statement Executed: {}", statement);
-				statement.closeOnCompletion();
-				
-			} else {
+		try {
 			
-				query.append("INSERT INTO ");
-				query.append(SETTINGS_TABLE_NAME).append("(");
-				query.append("property,");
-				query.append("value");
-				query.append(") VALUES(?, ?);");
-				
-				PreparedStatement statement = connection.prepareStatement(query.toString());
-	
-				statement.setString(1, property);
-				statement.setString(2, value.toString());
-				
-				statement.executeUpdate();
-				log.trace("Statement Executed: {}", statement);
-				statement.closeOnCompletion();
+			PreparedStatement statement = prepare(query.toString());
 			
-			}
+			statement.setString(1, property);
+			statement.setString(2, value.toString());
+			
+			statement.executeUpdate();
+			log.trace("Statement Executed: {}", statement);
 		
 		} catch (final SQLException e) {
 			log.error("", e);
@@ -618,6 +906,49 @@ public class HyperSQLDatabase implements DatabaseModelInterface {
 		
 	}
 	
+	//HyperSQL doesn't support "CREATE INDEX IF NOT EXISTS"
+	private boolean hasIndex(final String table, final String index) throws SQLException {
+		
+		ResultSet results = connection.getMetaData().getIndexInfo(null, null, table.toUpperCase(), false, false);
+		
+		boolean found = false;
+		
+		while (results.next()) {
+			if (index.equalsIgnoreCase(results.getString("INDEX_NAME"))) {
+				found = true;
+				break;
+			}
+		}
+		
+		results.close();
+		
+		return found;
+		
+	}
+	
+	private synchronized PreparedStatement prepare(final String query) throws SQLException {
+		
+		PreparedStatement statement = statements.get(query);
+		
+		if (statement == null) {
+			statement = connection.prepareStatement(query);
+			statements.put(query, statement);
+		}
+		
+		return statement;
+		
+	}
+	
+	private synchronized void closeStatements() throws SQLException {
+		
+		for (PreparedStatement statement : statements.values()) {
+			statement.close();
+		}
+		
+		statements.clear();
+		
+	}
+	
 	private boolean hasRows(final ResultSet resultSet) throws SQLException {
 		return resultSet.isBeforeFirst();
 	}
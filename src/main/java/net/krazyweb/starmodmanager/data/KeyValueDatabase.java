@@ -0,0 +1,587 @@
+package net.krazyweb.starmodmanager.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.EventHandler;
+import net.krazyweb.starmodmanager.dialogue.MessageDialogue;
+import net.krazyweb.starmodmanager.dialogue.MessageDialogue.MessageType;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.eclipsesource.json.ParseException;
+
+/*
+ * A lightweight alternative to HyperSQLDatabase. Everything is kept in
+ * memory and every change is appended to a log file as one line of JSON:
+ * {"table": ..., "key": ..., "value": ...}, where a null value deletes the
+ * key. Opening the database replays the log. Once most of the log is made
+ * of records that later ones have replaced, it is rewritten with only the
+ * current values.
+ */
+public class KeyValueDatabase implements DatabaseBackend {
+	
+	private static final Logger log = LogManager.getLogger(KeyValueDatabase.class);
+	
+	private static final String LOG_NAME = "kvdb.log";
+	private static final String MIGRATION_MARKER = "kvdb.migrating";
+	
+	private static final String MOD_TABLE_NAME = "mods";
+	private static final String ORDER_TABLE_NAME = "loadorder"; //Changes only the load order of a mod in the mods table
+	private static final String SETTINGS_TABLE_NAME = "settings";
+	
+	//The log isn't compacted before it holds this many records
+	private static final int COMPACTION_THRESHOLD = 1000;
+	
+	private Path folder;
+	private Path logFile;
+	private Writer writer;
+	private int records;
+	
+	private Map<String, JsonObject> mods = new LinkedHashMap<>();
+	
+	//Maps every path to the mods that replace it and the hash of their version, like ModPathIndex
+	private Map<String, Map<String, JsonValue>> modsByPath = new HashMap<>();
+	private Map<String, String> properties = new HashMap<>();
+
+	private SettingsModelInterface settings;
+	private SettingsModelFactory settingsFactory;
+	
+	private Set<Observer> observers;
+	
+	protected KeyValueDatabase(final SettingsModelFactory settingsFactory) {
+		this(settingsFactory, Paths.get("data"));
+	}
+	
+	protected KeyValueDatabase(final SettingsModelFactory settingsFactory, final Path folder) {
+		observers = new HashSet<>();
+		this.settingsFactory = settingsFactory;
+		this.folder = folder;
+		logFile = folder.resolve(LOG_NAME);
+	}
+	
+	@Override
+	public Task<Void> getInitializerTask() {
+		
+		final Task<Void> task = new Task<Void>() {
+
+			@Override
+			protected Void call() throws Exception {
+				
+				settings = settingsFactory.getInstance();
+
+				this.updateMessage("Loading Database");
+				this.updateProgress(0.0, 2.0);
+				
+				Path marker = folder.resolve(MIGRATION_MARKER);
+				boolean migrate = DatabaseMigrator.startMigration(KeyValueDatabase.this, marker);
+				
+				open();
+
+				this.updateProgress(1.0, 2.0);
+				
+				if (migrate) {
+					this.updateMessage("Migrating Database");
+					DatabaseMigrator.migrate(new HyperSQLDatabase(settingsFactory, folder), KeyValueDatabase.this);
+					DatabaseMigrator.finishMigration(marker);
+				}
+				
+				this.updateProgress(2.0, 2.0);
+				
+				return null;
+				
+			}
+			
+		};
+		
+		task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+			@Override
+			public void handle(final WorkerStateEvent event) {
+				notifyObservers("databaseinitialized");
+			}
+		});
+		
+		task.setOnFailed(new EventHandler<WorkerStateEvent>() {
+			@Override
+			public void handle(final WorkerStateEvent event) {
+				log.error("", task.getException());
+				MessageDialogue dialogue = new MessageDialogue("An error occurred while connecting to the database. Please see the log for more information.", "Database Error", MessageType.ERROR, new NotLoadedLocalizerFactory());
+				dialogue.getResult();
+			}
+		});
+		
+		return task;
+		
+	}
+	
+	@Override
+	public Task<Void> getCloseTask() {
+
+		final Task<Void> task = new Task<Void>() {
+
+			@Override
+			protected Void call() throws Exception {
+				
+				//Settings changes are written in the background and may not have reached the database yet
+				settings.flush();
+				
+				close();
+				
+				return null;
+				
+			}
+			
+		};
+		
+		task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+			@Override
+			public void handle(final WorkerStateEvent event) {
+				notifyObservers("databaseclosed");
+			}
+		});
+		
+		return task;
+		
+	}
+	
+	@Override
+	public boolean exists() {
+		return Files.exists(logFile);
+	}
+	
+	@Override
+	public synchronized void open() throws IOException {
+		
+		Files.createDirectories(folder);
+		
+		mods.clear();
+		modsByPath.clear();
+		properties.clear();
+		records = 0;
+		
+		if (Files.exists(logFile)) {
+			
+			try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+				
+				String line;
+				
+				while ((line = reader.readLine()) != null) {
+					
+					if (line.isEmpty()) {
+						continue;
+					}
+					
+					try {
+						apply(JsonObject.readFrom(line));
+						records++;
+					} catch (final ParseException | NullPointerException | UnsupportedOperationException e) {
+						//Most likely the last record, cut short by a crash while it was written
+						log.warn("Skipping damaged record in {}: {}", logFile, line);
+					}
+					
+				}
+				
+			}
+			
+			log.debug("{} records read from {}.", records, logFile);
+			
+		}
+		
+		writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		
+		if (needsCompaction()) {
+			compact();
+		}
+		
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+		
+	}
+	
+	private void apply(final JsonObject record) {
+		
+		String table = record.get("table").asString();
+		String key = record.get("key").asString();
+		JsonValue value = record.get("value");
+		
+		boolean delete = value == null || value.isNull();
+		
+		switch (table) {
+			
+			case MOD_TABLE_NAME:
+				if (delete) {
+					removeMod(key);
+				} else {
+					putMod(key, value.asObject());
+				}
+				break;
+				
+			case ORDER_TABLE_NAME:
+				if (mods.containsKey(key)) {
+					mods.get(key).set("loadOrder", value.asInt());
+				}
+				break;
+				
+			case SETTINGS_TABLE_NAME:
+				if (delete) {
+					properties.remove(key);
+				} else {
+					properties.put(key, value.asString());
+				}
+				break;
+				
+			default:
+				log.warn("Unknown table in {}: {}", logFile, table);
+				
+		}
+		
+	}
+	
+	private void putMod(final String name, final JsonObject json) {
+		
+		removeMod(name);
+		mods.put(name, json);
+		
+		for (JsonValue value : json.get("files").asArray()) {
+			
+			JsonObject file = value.asObject();
+			
+			if (file.get("ignored").asBoolean() || file.get("autoMerged").asBoolean()) {
+				continue;
+			}
+			
+			Map<String, JsonValue> modsWithPath = modsByPath.get(file.get("path").asString());
+			
+			if (modsWithPath == null) {
+				modsWithPath = new HashMap<>();
+				modsByPath.put(file.get("path").asString(), modsWithPath);
+			}
+			
+			modsWithPath.put(name, file.get("hash"));
+			
+		}
+		
+	}
+	
+	private JsonObject removeMod(final String name) {
+		
+		JsonObject json = mods.remove(name);
+		
+		if (json == null) {
+			return null;
+		}
+		
+		for (JsonValue value : json.get("files").asArray()) {
+			
+			String path = value.asObject().get("path").asString();
+			Map<String, JsonValue> modsWithPath = modsByPath.get(path);
+			
+			if (modsWithPath != null) {
+				modsWithPath.remove(name);
+				if (modsWithPath.isEmpty()) {
+					modsByPath.remove(path);
+				}
+			}
+			
+		}
+		
+		return json;
+		
+	}
+	
+	/*
+	 * Records are handed to the operating system as soon as they are
+	 * written, but not forced to disk, matching the write delay HyperSQL
+	 * uses by default.
+	 */
+	private void append(final String table, final String key, final JsonValue value) throws SQLException {
+		
+		JsonObject record = new JsonObject();
+		record.add("table", table);
+		record.add("key", key);
+		record.add("value", value == null ? JsonValue.NULL : value);
+		
+		try {
+			
+			record.writeTo(writer);
+			writer.write('\n');
+			writer.flush();
+			
+			records++;
+			
+			if (needsCompaction()) {
+				compact();
+			}
+			
+		} catch (final IOException e) {
+			throw new SQLException("Could not write to " + logFile, e);
+		}
+		
+	}
+	
+	private boolean needsCompaction() {
+		return records > COMPACTION_THRESHOLD && records > 2 * (mods.size() + properties.size());
+	}
+	
+	/*
+	 * Writes the current values to a new log and swaps it in, so a crash
+	 * part way through leaves the old log untouched.
+	 */
+	private void compact() throws IOException {
+		
+		log.debug("Compacting {} ({} records, {} live).", logFile, records, mods.size() + properties.size());
+		
+		writer.close();
+		
+		Path temp = folder.resolve(LOG_NAME + ".tmp");
+		
+		try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+			
+			for (Map.Entry<String, JsonObject> mod : mods.entrySet()) {
+				writeRecord(out, MOD_TABLE_NAME, mod.getKey(), mod.getValue());
+			}
+			
+			for (Map.Entry<String, String> property : properties.entrySet()) {
+				writeRecord(out, SETTINGS_TABLE_NAME, property.getKey(), JsonValue.valueOf(property.getValue()));
+			}
+			
+		}
+		
+		Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		records = mods.size() + properties.size();
+		writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		
+	}
+	
+	private void writeRecord(final Writer out, final String table, final String key, final JsonValue value) throws IOException {
+		
+		JsonObject record = new JsonObject();
+		record.add("table", table);
+		record.add("key", key);
+		record.add("value", value);
+		
+		record.writeTo(out);
+		out.write('\n');
+		
+	}
+	
+	@Override
+	public synchronized void updateMod(final Mod mod) throws SQLException {
+		JsonObject json = ModSerializer.toJson(mod);
+		putMod(mod.getInternalName(), json);
+		append(MOD_TABLE_NAME, mod.getInternalName(), json);
+	}
+	
+	@Override
+	public synchronized void updateOrders(final List<Mod> modList) throws SQLException {
+		
+		for (Mod mod : modList) {
+			
+			JsonObject json = mods.get(mod.getInternalName());
+			
+			if (json == null || json.get("loadOrder").asInt() == mod.getOrder()) {
+				continue;
+			}
+			
+			json.set("loadOrder", mod.getOrder());
+			append(ORDER_TABLE_NAME, mod.getInternalName(), JsonValue.valueOf(mod.getOrder()));
+			
+		}
+		
+	}
+	
+	@Override
+	public synchronized void deleteMod(final Mod mod) throws SQLException {
+		if (removeMod(mod.getInternalName()) != null) {
+			append(MOD_TABLE_NAME, mod.getInternalName(), null);
+		}
+	}
+	
+	@Override
+	public synchronized List<String> getModNames() {
+		
+		List<String> output = new ArrayList<>();
+		
+		for (JsonObject mod : mods.values()) {
+			output.add(mod.get("internalName").asString() + "\n" + mod.get("archiveName").asString());
+		}
+		
+		return output;
+		
+	}
+	
+	@Override
+	public synchronized Mod readMod(final String modName) {
+		
+		JsonObject json = mods.get(modName);
+		
+		if (json == null) {
+			return null;
+		}
+		
+		return ModSerializer.fromJson(json);
+		
+	}
+	
+	@Override
+	public Mod getModByName(final String modName) throws SQLException, IOException {
+		
+		Mod mod = readMod(modName);
+		
+		if (mod == null) {
+			return null;
+		}
+		
+		return ModVerifier.verify(mod, this, settings);
+		
+	}
+	
+	@Override
+	public synchronized Set<String> getModsWithFile(final Path path) {
+		
+		Set<String> output = new HashSet<>();
+		Map<String, JsonValue> modsWithPath = modsByPath.get(path.toString());
+		
+		if (modsWithPath == null) {
+			return output;
+		}
+		
+		for (String name : modsWithPath.keySet()) {
+			if (isActive(name)) {
+				output.add(name);
+			}
+		}
+		
+		return output;
+		
+	}
+	
+	/*
+	 * A path is only a conflict when the mods replacing it don't all ship
+	 * the same contents. Files without a known hash always count as different.
+	 */
+	@Override
+	public synchronized Set<Path> getConflictingFiles() {
+		
+		Set<Path> output = new HashSet<>();
+		
+		for (Map.Entry<String, Map<String, JsonValue>> path : modsByPath.entrySet()) {
+			
+			if (path.getValue().size() < 2 || path.getKey().endsWith(".modinfo")) {
+				continue;
+			}
+			
+			List<JsonValue> hashes = new ArrayList<>();
+			
+			for (Map.Entry<String, JsonValue> mod : path.getValue().entrySet()) {
+				if (isActive(mod.getKey())) {
+					hashes.add(mod.getValue());
+				}
+			}
+			
+			if (hashes.size() < 2) {
+				continue;
+			}
+			
+			for (JsonValue hash : hashes) {
+				if (hash == null || hash.isNull() || !hash.equals(hashes.get(0))) {
+					output.add(Paths.get(path.getKey()));
+					break;
+				}
+			}
+			
+		}
+		
+		return output;
+		
+	}
+	
+	//Installed mods that aren't hidden are the ones that take part in conflicts
+	private boolean isActive(final String name) {
+		JsonObject mod = mods.get(name);
+		return mod.get("installed").asBoolean() && !mod.get("hidden").asBoolean();
+	}
+	
+	@Override
+	public synchronized Map<String, String> getProperties() {
+		return new HashMap<>(properties);
+	}
+	
+	@Override
+	public synchronized String getPropertyString(final String property, final String defaultValue) {
+		
+		String result = properties.get(property);
+		
+		if (result == null) {
+			return defaultValue;
+		}
+		
+		return result;
+		
+	}
+	
+	@Override
+	public int getPropertyInt(final String property, final int defaultValue) {
+		return Integer.parseInt(getPropertyString(property, "" + defaultValue));
+	}
+	
+	@Override
+	public synchronized void setProperty(final String property, final Object value) {
+		
+		properties.put(property, value.toString());
+		
+		try {
+			append(SETTINGS_TABLE_NAME, property, JsonValue.valueOf(value.toString()));
+		} catch (final SQLException e) {
+			log.error("", e);
+		}
+		
+		log.debug("'{}' -> '{}' added to database.", property, value);
+		
+	}
+
+	@Override
+	public void addObserver(final Observer observer) {
+		observers.add(observer);
+	}
+
+	@Override
+	public void removeObserver(final Observer observer) {
+		observers.remove(observer);
+	}
+	
+	private final void notifyObservers(final String message) {
+		for (final Observer o : observers) {
+			o.update(this, (Object) message);
+		}
+	}
+	
+}
@@ -11,10 +11,14 @@ import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 
 import net.krazyweb.helpers.Archive;
 import net.krazyweb.helpers.ArchiveFile;
+import net.krazyweb.helpers.ChecksumEngine;
+import net.krazyweb.helpers.ChecksumEngine.Algorithm;
+import net.krazyweb.helpers.FileFingerprint;
 import net.krazyweb.helpers.FileHelper;
 import net.krazyweb.helpers.JSONHelper;
 import net.krazyweb.stardb.databases.AssetDatabase;
@@ -37,6 +41,9 @@ public class Mod implements Observable {
 	private static final String NO_AUTHOR = "StarboundModManager___NO_AUTHOR_FOR_MOD";
 	private static final String NO_VERSION = "StarboundModManager___NO_VERSION_FOR_MOD";
 	
+	//The names of the archives currently being written by repack()
+	private static final Set<String> repacking = new HashSet<>();
+	
 	private String internalName;
 	private String displayName;
 	private String modVersion;
@@ -48,6 +55,7 @@ public class Mod implements Observable {
 	private String imageName;
 	
 	private long checksum;
+	private FileFingerprint fingerprint;
 	
 	private int order = -1;
 	
@@ -82,8 +90,6 @@ public class Mod implements Observable {
 		
 		log.debug("Loading mod: {}", path);
 		
-		Set<Mod> mods = new HashSet<>();
-		
 		//TODO Count all mods and send back progress info
 		
 		Set<Archive> archives = null;
@@ -96,119 +102,199 @@ public class Mod implements Observable {
 			return new HashSet<Mod>();
 		}
 		
-		for (Archive archive : archives) {
-			
-			Mod mod = new Mod(localizerFactory, settingsFactory);
-			
-			mod.setOrder(order);
-			mod.files = new HashSet<>();
-			mod.setArchiveName(archive.getFileName());
-			
-			//Get the modinfo file and parse it
-			JsonObject obj = JsonObject.readFrom(new String(archive.getFile(".modinfo").getData()));
-			
-			mod.setInternalName(obj.get("name").asString());
-			
-			if (obj.get("version") != null) {
-				mod.setGameVersion(obj.get("version").asString());
-			} else {
-				mod.setGameVersion("Field Empty");
+		Set<Mod> mods = repack(archives, order, settingsFactory, localizerFactory);
+		
+		for (Mod mod : mods) {
+			try {
+				databaseFactory.getInstance().updateMod(mod);
+			} catch (SQLException e) {
+				log.error("", e);
+				MessageDialogue dialogue = new MessageDialogue(localizer.getMessage("mod.dbconnectionerror"), localizer.getMessage("mod.dbconnectionerror.title"), MessageType.ERROR, new LocalizerFactory());
+				dialogue.getResult();
+				return new HashSet<Mod>();
+			}
+		}
+		
+		return mods;
+		
+	}
+	
+	/*
+	 * Second stage of loading a mod file: writes the archives produced by
+	 * processModFile() to the mods folder and builds a Mod for each one.
+	 * The archives are closed afterwards. Nothing is written to the database.
+	 */
+	protected static Set<Mod> repack(final Set<Archive> archives, final int order, final SettingsModelFactory settingsFactory, final LocalizerModelFactory localizerFactory) {
+		
+		Set<Mod> mods = new HashSet<>();
+		
+		try {
+			for (Archive archive : archives) {
+				
+				String name = getRepackName(archive);
+				
+				claimRepack(name);
+				
+				try {
+					archive.writeToFile();
+					mods.add(fromArchive(archive, order, settingsFactory, localizerFactory));
+				} finally {
+					releaseRepack(name);
+				}
+				
+			}
+		} catch (final InterruptedException e) {
+			log.error("", e);
+			Thread.currentThread().interrupt();
+		} finally {
+			closeArchives(archives);
+		}
+		
+		return mods;
+		
+	}
+	
+	/*
+	 * The name of the file an archive is repacked to in the mods folder, in
+	 * lower case since it may be on a case-insensitive file system.
+	 */
+	protected static String getRepackName(final Archive archive) {
+		return archive.getFileName().toLowerCase(Locale.ENGLISH);
+	}
+	
+	/*
+	 * Repacks run in parallel, and two of them writing (then checksumming)
+	 * the same file at once would corrupt it, so only one runs per file.
+	 */
+	private static void claimRepack(final String name) throws InterruptedException {
+		synchronized (repacking) {
+			while (!repacking.add(name)) {
+				repacking.wait();
+			}
+		}
+	}
+	
+	private static void releaseRepack(final String name) {
+		synchronized (repacking) {
+			repacking.remove(name);
+			repacking.notifyAll();
+		}
+	}
+	
+	private static Mod fromArchive(final Archive archive, final int order, final SettingsModelFactory settingsFactory, final LocalizerModelFactory localizerFactory) {
+		
+		Mod mod = new Mod(localizerFactory, settingsFactory);
+		
+		mod.setOrder(order);
+		mod.files = new HashSet<>();
+		mod.setArchiveName(archive.getFileName());
+		
+		//Get the modinfo file and parse it
+		JsonObject obj = JsonObject.readFrom(new String(archive.getFile(".modinfo").getData()));
+		
+		mod.setInternalName(obj.get("name").asString());
+		
+		if (obj.get("version") != null) {
+			mod.setGameVersion(obj.get("version").asString());
+		} else {
+			mod.setGameVersion("Field Empty");
+		}
+		
+		Set<String> dependencies = new HashSet<>();
+		Set<String> ignoredFileNames = new HashSet<>();
+		
+		if (obj.get("dependencies") != null) {
+			JsonArray arr = obj.get("dependencies").asArray();
+			for (int i = 0; i < arr.size(); i++) {
+				dependencies.add(arr.get(i).asString());
 			}
+		}
+		
+		mod.setDependencies(dependencies);
+		
+		if (obj.get("metadata") != null) {
 			
-			Set<String> dependencies = new HashSet<>();
-			Set<String> ignoredFileNames = new HashSet<>();
+			JsonObject metadata = obj.get("metadata").asObject();
 			
-			if (obj.get("dependencies") != null) {
-				JsonArray arr = obj.get("dependencies").asArray();
+			mod.setDisplayName(JSONHelper.getString(metadata, "displayname", mod.getInternalName()));
+			mod.setAuthor(JSONHelper.getString(metadata, "author", NO_AUTHOR));
+			mod.setDescription(JSONHelper.getString(metadata, "description", NO_DESCRIPTION));
+			mod.setURL(JSONHelper.getString(metadata, "support_url", ""));
+			mod.setModVersion(JSONHelper.getString(metadata, "version", NO_VERSION));
+			
+			if (obj.get("ignoredfiles") != null) {
+				JsonArray arr = obj.get("ignoredfiles").asArray();
 				for (int i = 0; i < arr.size(); i++) {
-					dependencies.add(arr.get(i).asString());
+					ignoredFileNames.add(arr.get(i).asString());
 				}
 			}
 			
-			mod.setDependencies(dependencies);
+		} else {
 			
-			if (obj.get("metadata") != null) {
-				
-				JsonObject metadata = obj.get("metadata").asObject();
-				
-				mod.setDisplayName(JSONHelper.getString(metadata, "displayname", mod.getInternalName()));
-				mod.setAuthor(JSONHelper.getString(metadata, "author", NO_AUTHOR));
-				mod.setDescription(JSONHelper.getString(metadata, "description", NO_DESCRIPTION));
-				mod.setURL(JSONHelper.getString(metadata, "support_url", ""));
-				mod.setModVersion(JSONHelper.getString(metadata, "version", NO_VERSION));
-				
-				if (obj.get("ignoredfiles") != null) {
-					JsonArray arr = obj.get("ignoredfiles").asArray();
-					for (int i = 0; i < arr.size(); i++) {
-						ignoredFileNames.add(arr.get(i).asString());
-					}
-				}
-				
-			} else {
-				
-				mod.setDisplayName(mod.getInternalName());
-				mod.setAuthor(NO_AUTHOR);
-				mod.setDescription(NO_DESCRIPTION);
-				mod.setURL("");
-				mod.setModVersion(NO_VERSION);
-				
-			}
+			mod.setDisplayName(mod.getInternalName());
+			mod.setAuthor(NO_AUTHOR);
+			mod.setDescription(NO_DESCRIPTION);
+			mod.setURL("");
+			mod.setModVersion(NO_VERSION);
 			
-			try {
-				mod.setChecksum(FileHelper.getChecksum(new File(settingsFactory.getInstance().getPropertyString("modsdir") + File.separator + mod.archiveName).toPath())); //TODO Better Path manipulation
-			} catch (IOException e) {
-				log.error("Setting Checksum", e);
+		}
+		
+		try {
+			Path archivePath = new File(settingsFactory.getInstance().getPropertyString("modsdir") + File.separator + mod.archiveName).toPath(); //TODO Better Path manipulation
+			mod.setChecksum(FileHelper.getChecksum(archivePath));
+			mod.setFingerprint(FileFingerprint.of(archivePath));
+		} catch (IOException e) {
+			log.error("Setting Checksum", e);
+		}
+		
+		for (ArchiveFile archiveFile : archive.getFiles()) {
+			
+			ModFile modFile = new ModFile();
+			modFile.setPath(archiveFile.getPath());
+			
+			//Find and list all ignored files
+			for (String ignored : ignoredFileNames) {
+				if (archiveFile.getPath().endsWith(ignored) || archiveFile.getPath().endsWith(".txt")) {
+					modFile.setIgnored(true);
+				}
 			}
 			
-			for (ArchiveFile archiveFile : archive.getFiles()) {
+			//Scan all json files and find those with mergeability
+			if (!archiveFile.isFolder() && FileHelper.isJSON(archiveFile.getPath())) {
 				
-				ModFile modFile = new ModFile();
-				modFile.setPath(archiveFile.getPath());
+				modFile.setJson(true);
 				
-				//Find and list all ignored files
-				for (String ignored : ignoredFileNames) {
-					if (archiveFile.getPath().endsWith(ignored) || archiveFile.getPath().endsWith(".txt")) {
-						modFile.setIgnored(true);
-					}
-				}
+				String fileContents = new String(archiveFile.getData());
 				
-				//Scan all json files and find those with mergeability
-				if (!archiveFile.isFolder() && FileHelper.isJSON(archiveFile.getPath())) {
-					
-					modFile.setJson(true);
-					
-					String fileContents = new String(archiveFile.getData());
-					
-					if (fileContents.contains("__merge")) {
-						modFile.setAutoMerged(true);
-					}
-					
-				}
-				
-				if (!archiveFile.isFolder()) {
-					mod.files.add(modFile);
+				if (fileContents.contains("__merge")) {
+					modFile.setAutoMerged(true);
 				}
 				
 			}
 			
-			try {
-				databaseFactory.getInstance().updateMod(mod);
-			} catch (SQLException e) {
-				log.error("", e);
-				MessageDialogue dialogue = new MessageDialogue(localizer.getMessage("mod.dbconnectionerror"), localizer.getMessage("mod.dbconnectionerror.title"), MessageType.ERROR, new LocalizerFactory());
-				dialogue.getResult();
-				return new HashSet<Mod>();
+			if (!archiveFile.isFolder()) {
+				modFile.setHash(ChecksumEngine.toHex(ChecksumEngine.digest(archiveFile.getData(), Algorithm.MD5)));
+				mod.files.add(modFile);
 			}
 			
-			mods.add(mod);
-			
 		}
 		
-		return mods;
+		return mod;
 		
 	}
+	
+	private static void closeArchives(final Set<Archive> archives) {
+		for (Archive archive : archives) {
+			archive.close();
+		}
+	}
 
-	private static Set<Archive> processModFile(final Path path, final SettingsModelFactory settingsFactory) throws IOException, StarDBException, ParseException {
+	/*
+	 * First stage of loading a mod file: identifies it, extracts it and
+	 * restructures its contents into one archive per mod. The archives are
+	 * only held in memory until repack() writes them out.
+	 */
+	protected static Set<Archive> processModFile(final Path path, final SettingsModelFactory settingsFactory) throws IOException, StarDBException, ParseException {
 		
 		Set<Archive> archives = new HashSet<>();
 		
@@ -291,8 +377,6 @@ public class Mod implements Observable {
 		
 		Files.deleteIfExists(settings.getPropertyPath("modsdir").resolve(path.subpath(path.getNameCount() - 1, path.getNameCount())));
 		
-		modArchive.writeToFile();
-		
 		output.add(modArchive);
 		
 	}
@@ -302,10 +386,12 @@ public class Mod implements Observable {
 		Archive originalArchive = new Archive(path);
 		
 		if (!originalArchive.extract()) {
+			originalArchive.close();
 			throw new IOException("Could not extract archive.");
 		}
 		
 		Set<ArchiveFile> usedPaks = new HashSet<>();
+		boolean referenced = false;
 		
 		for (ArchiveFile file : originalArchive.getFiles()) {
 			
@@ -338,6 +424,8 @@ public class Mod implements Observable {
 				}
 
 				Archive outputArchive = new Archive(settingsFactory.getInstance().getPropertyPath("modsdir").resolve(Paths.get(o.get("name").asString() + ".zip")));
+				outputArchive.addSourceArchive(originalArchive);
+				referenced = true;
 				
 				if (file.getPath().getNameCount() == 1) {
 					outputArchive.addFile(new ArchiveFile(file.getData(), file.getPath(), false));
@@ -403,20 +491,20 @@ public class Mod implements Observable {
 								if (f2.getPath().getNameCount() == 1) {
 									
 									if (!f2.getPath().startsWith(assetsPath)) {
-										outputArchive.addFile(new ArchiveFile(f2.getData(), Paths.get("assets/").resolve(f2.getPath()).normalize(), false));
+										outputArchive.addFile(new ArchiveFile(f2, Paths.get("assets/").resolve(f2.getPath()).normalize()));
 										log.trace("'{}' -> '{}' relativized to '{}'", modinfoPath, f2.getPath(), Paths.get("assets/").resolve(f2.getPath()).normalize());
 									} else {
-										outputArchive.addFile(new ArchiveFile(f2.getData(), f2.getPath(), false));
+										outputArchive.addFile(new ArchiveFile(f2, f2.getPath()));
 										log.trace("'{}' -> '{}' relativized to '{}'", modinfoPath, f2.getPath(), f2.getPath());
 									}
 									
 								} else {
 									
 									if (!f2.getPath().startsWith(assetsPath)) {
-										outputArchive.addFile(new ArchiveFile(f2.getData(), Paths.get("assets/").resolve(f2.getPath()).normalize(), false));
+										outputArchive.addFile(new ArchiveFile(f2, Paths.get("assets/").resolve(f2.getPath()).normalize()));
 										log.trace("'{}' -> '{}' relativized to '{}'", modinfoPath, f2.getPath(), Paths.get("assets/").resolve(f2.getPath()).normalize());
 									} else {
-										outputArchive.addFile(new ArchiveFile(f2.getData(), f2.getPath(), false));
+										outputArchive.addFile(new ArchiveFile(f2, f2.getPath()));
 										log.trace("'{}' -> '{}' relativized to '{}'", modinfoPath, f2.getPath(), f2.getPath());
 									}
 										
@@ -427,20 +515,20 @@ public class Mod implements Observable {
 								if (f2.getPath().getNameCount() == 1) {
 									
 									if (!modinfoPath.relativize(f2.getPath()).startsWith("assets")) {
-										outputArchive.addFile(new ArchiveFile(f2.getData(), Paths.get("assets/").resolve(f2.getPath()), false));
+										outputArchive.addFile(new ArchiveFile(f2, Paths.get("assets/").resolve(f2.getPath())));
 										log.trace("'{}' -> '{}' relativized to '{}'", modinfoPath, f2.getPath(), Paths.get("assets/").resolve(f2.getPath()));
 									} else {
-										outputArchive.addFile(new ArchiveFile(f2.getData(), f2.getPath(), false));
+										outputArchive.addFile(new ArchiveFile(f2, f2.getPath()));
 										log.trace("'{}' -> '{}' relativized to '{}'", modinfoPath, f2.getPath(), f2.getPath());
 									}
 									
 								} else {
 									
 									if (!modinfoPath.relativize(f2.getPath()).startsWith("assets")) {
-										outputArchive.addFile(new ArchiveFile(f2.getData(), Paths.get("assets/").resolve(modinfoPath.relativize(f2.getPath()).normalize()), false));
+										outputArchive.addFile(new ArchiveFile(f2, Paths.get("assets/").resolve(modinfoPath.relativize(f2.getPath()).normalize())));
 										log.trace("'{}' -> '{}' relativized to '{}'", modinfoPath, f2.getPath(), Paths.get("assets/").resolve(modinfoPath.relativize(f2.getPath()).normalize()));
 									} else {
-										outputArchive.addFile(new ArchiveFile(f2.getData(), modinfoPath.relativize(f2.getPath()).normalize(), false));
+										outputArchive.addFile(new ArchiveFile(f2, modinfoPath.relativize(f2.getPath()).normalize()));
 										log.trace("'{}' -> '{}' relativized to '{}'", modinfoPath, f2.getPath(), modinfoPath.relativize(f2.getPath()).normalize());
 									}
 										
@@ -452,8 +540,6 @@ public class Mod implements Observable {
 					
 				}
 				
-				outputArchive.writeToFile(settingsFactory.getInstance().getPropertyPath("modsdir").resolve(Paths.get(o.get("name").asString() + ".zip")).toFile()); //TODO
-				
 				output.add(outputArchive);
 				
 			}
@@ -488,6 +574,15 @@ public class Mod implements Observable {
 			
 		}
 		
+		/*
+		 * Repacked archives read their entries from the original, which is
+		 * closed along with them. Archives made from .pak files hold their
+		 * own data, so if there are only those the original is closed here.
+		 */
+		if (!referenced) {
+			originalArchive.close();
+		}
+		
 	}
 	
 	public boolean conflictsWith(final Mod mod) {
@@ -597,6 +692,14 @@ public class Mod implements Observable {
 		this.checksum = checksum;
 	}
 
+	protected FileFingerprint getFingerprint() {
+		return fingerprint;
+	}
+
+	protected void setFingerprint(final FileFingerprint fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
 	public boolean isHidden() {
 		return hidden;
 	}
@@ -10,6 +10,8 @@ public class ModFile {
 	private boolean ignored;
 	private boolean autoMerged; //The file uses the official "__merge" system.
 	
+	private String hash; //MD5 of the contents, used to tell identical files apart from conflicting ones
+	
 	public Path getPath() {
 		return path;
 	}
@@ -46,4 +48,12 @@ public class ModFile {
 		this.autoMerged = autoMerged;
 	}
 	
+	public String getHash() {
+		return hash;
+	}
+	
+	public void setHash(String hash) {
+		this.hash = hash;
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,296 @@
+package net.krazyweb.starmodmanager.data;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.krazyweb.helpers.FileHelper;
+import net.krazyweb.helpers.NamedThreadFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+/*
+ * Watches the mods folder and the game's installed mods folder for changes
+ * made outside of the mod manager. Events are collected until neither
+ * folder has changed for DEBOUNCE milliseconds, then handed to the listener
+ * in a single batch, so copying a large archive or replacing a whole folder
+ * is only reported once.
+ * 
+ * The mod manager writes to both folders itself. It calls suppress() and
+ * resume() around that work, and a batch that overlaps it is held until the
+ * work is done, since the user may have changed something at the same time.
+ * Archives are checked against their fingerprints, so the manager's own
+ * writes to the mods folder are harmless to report. Its writes to the game's
+ * mods folder aren't, so the paths it changed there are passed to ignore().
+ */
+class ModFolderWatcher implements Runnable {
+	
+	private static final Logger log = LogManager.getLogger(ModFolderWatcher.class);
+	
+	private static final long DEBOUNCE = 500;
+	
+	protected static interface Listener {
+		public void archivesChanged(final Set<Path> archives);
+		public void installedFoldersChanged(final Set<String> folders);
+	}
+	
+	private final Path modsFolder;
+	private final Path installFolder;
+	private final Listener listener;
+	
+	private WatchService watchService;
+	private final Map<WatchKey, Path> folders = new ConcurrentHashMap<>();
+	
+	private final AtomicInteger suppressed = new AtomicInteger();
+	private volatile long resumed;
+	
+	private final Set<Path> ignored = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+	
+	/*
+	 * The install folder may be null if the game folder hasn't been set.
+	 */
+	protected ModFolderWatcher(final Path modsFolder, final Path installFolder, final Listener listener) {
+		this.modsFolder = modsFolder.toAbsolutePath().normalize();
+		this.installFolder = installFolder == null ? null : installFolder.toAbsolutePath().normalize();
+		this.listener = listener;
+	}
+	
+	protected void start() throws IOException {
+		
+		if (watchService != null) {
+			return;
+		}
+		
+		watchService = FileSystems.getDefault().newWatchService();
+		
+		Files.createDirectories(modsFolder);
+		register(modsFolder);
+		
+		if (installFolder != null && !installFolder.equals(modsFolder) && Files.isDirectory(installFolder)) {
+			registerTree(installFolder);
+		}
+		
+		/*
+		 * The watcher blocks for the life of the application, so it has
+		 * its own thread rather than tying up a scheduler lane.
+		 */
+		new NamedThreadFactory("Mod Folder Watcher").newThread(this).start();
+		
+	}
+	
+	protected void stop() {
+		
+		if (watchService == null) {
+			return;
+		}
+		
+		try {
+			watchService.close();
+		} catch (final IOException e) {
+			log.error("", e);
+		}
+		
+	}
+	
+	protected void suppress() {
+		suppressed.incrementAndGet();
+	}
+	
+	protected void resume() {
+		resumed = System.currentTimeMillis();
+		suppressed.decrementAndGet();
+	}
+	
+	/*
+	 * Changes to these installed paths, to anything beneath them and to the
+	 * folders above them are left out of the next batch.
+	 */
+	protected void ignore(final Collection<Path> paths) {
+		for (Path path : paths) {
+			ignored.add(path.toAbsolutePath().normalize());
+		}
+	}
+	
+	/*
+	 * Events can arrive a little after the write that caused them, so the
+	 * watcher stays suppressed for one debounce period after resume().
+	 */
+	private boolean isSuppressed() {
+		return suppressed.get() > 0 || System.currentTimeMillis() - resumed < DEBOUNCE;
+	}
+	
+	@Override
+	public void run() {
+		
+		try {
+			
+			while (true) {
+				
+				Set<Path> archives = new HashSet<>();
+				Set<Path> installedPaths = new HashSet<>();
+				
+				WatchKey key = watchService.take();
+				
+				while (key != null || isSuppressed()) {
+					if (key != null) {
+						collect(key, archives, installedPaths);
+					}
+					key = watchService.poll(DEBOUNCE, TimeUnit.MILLISECONDS);
+				}
+				
+				Set<String> installed = getInstalledFolders(installedPaths);
+				
+				if (!archives.isEmpty()) {
+					log.debug("Archives changed: {}", archives);
+					listener.archivesChanged(archives);
+				}
+				
+				if (!installed.isEmpty()) {
+					log.debug("Installed folders changed: {}", installed);
+					listener.installedFoldersChanged(installed);
+				}
+				
+			}
+			
+		} catch (final ClosedWatchServiceException | InterruptedException e) {
+			log.debug("Mod folder watcher stopped");
+		}
+		
+	}
+	
+	/*
+	 * Returns the installed mod folders with changes the mod manager didn't
+	 * make itself, and forgets the paths that were ignored.
+	 */
+	private Set<String> getInstalledFolders(final Set<Path> paths) {
+		
+		Set<Path> own = new HashSet<>(ignored);
+		Set<String> installed = new HashSet<>();
+		
+		for (Path path : paths) {
+			
+			boolean isOwn = false;
+			
+			for (Path ownPath : own) {
+				if (path.startsWith(ownPath) || ownPath.startsWith(path)) {
+					isOwn = true;
+					break;
+				}
+			}
+			
+			if (!isOwn) {
+				installed.add(installFolder.relativize(path).getName(0).toString());
+			}
+			
+		}
+		
+		if (!own.isEmpty()) {
+			log.debug("Ignoring changes made by the mod manager to {} installed paths", own.size());
+		}
+		
+		ignored.removeAll(own);
+		
+		return installed;
+		
+	}
+	
+	private void collect(final WatchKey key, final Set<Path> archives, final Set<Path> installed) {
+		
+		Path folder = folders.get(key);
+		
+		for (WatchEvent<?> event : key.pollEvents()) {
+			
+			if (folder == null) {
+				continue;
+			}
+			
+			if (event.kind() == OVERFLOW) {
+				
+				//Some events were lost, so every archive has to be checked
+				if (folder.equals(modsFolder)) {
+					for (Path path : FileHelper.listFiles(modsFolder, new HashSet<Path>())) {
+						if (!Files.isDirectory(path)) {
+							archives.add(path);
+						}
+					}
+				}
+				
+				continue;
+				
+			}
+			
+			Path path = folder.resolve((Path) event.context());
+			
+			if (folder.equals(modsFolder)) {
+				
+				//Only archives are stored directly in the mods folder; images are in a sub-folder
+				if (!Files.isDirectory(path)) {
+					archives.add(path);
+				}
+				
+			} else {
+				
+				installed.add(path);
+				
+				if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+					try {
+						registerTree(path);
+					} catch (final IOException e) {
+						log.error(new ParameterizedMessage("Watching folder: {}", path), e);
+					}
+				}
+				
+			}
+			
+		}
+		
+		if (!key.reset()) {
+			folders.remove(key);
+		}
+		
+	}
+	
+	private void register(final Path folder) throws IOException {
+		folders.put(folder.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), folder);
+	}
+	
+	/*
+	 * Watch services only report changes to a folder's direct children, so
+	 * every folder in the tree is registered.
+	 */
+	private void registerTree(final Path root) throws IOException {
+		
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path directory, final BasicFileAttributes attributes) throws IOException {
+				register(directory);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		
+	}
+	
+}
@@ -0,0 +1,210 @@
+package net.krazyweb.starmodmanager.data;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import net.krazyweb.helpers.Archive;
+import net.krazyweb.helpers.TaskScheduler;
+import net.krazyweb.helpers.TaskScheduler.Lane;
+import net.krazyweb.stardb.exceptions.StarDBException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+import com.eclipsesource.json.ParseException;
+
+/*
+ * Imports mod files through a three stage pipeline:
+ * 
+ *  1. Identify and extract the file (Mod.processModFile)
+ *  2. Repack every mod it contains into the mods folder (Mod.repack)
+ *  3. Hand the resulting mods to the listener, which stores them
+ * 
+ * Mods that would be repacked over the archive of a mod already in the
+ * database are skipped before anything is written, along with the listener
+ * being told how many were skipped.
+ * 
+ * The first two stages run on the scheduler's CPU lane. The last
+ * stage runs on the calling thread, strictly in the order the files were
+ * given, so results are merged in a deterministic load order and the
+ * database is only ever written from a single thread.
+ */
+class ModImporter {
+	
+	private static final Logger log = LogManager.getLogger(ModImporter.class);
+	
+	protected static interface ImportListener {
+		public void modFileImported(final int index, final Path file, final Set<Mod> mods, final int skipped) throws Exception;
+	}
+	
+	private SettingsModelFactory settingsFactory;
+	private LocalizerModelFactory localizerFactory;
+	
+	private int threads;
+	
+	protected ModImporter(final SettingsModelFactory settingsFactory, final LocalizerModelFactory localizerFactory) {
+		this.settingsFactory = settingsFactory;
+		this.localizerFactory = localizerFactory;
+		threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/*
+	 * The existing archives are the archive names of every mod in the
+	 * database, including hidden ones.
+	 */
+	protected void importFiles(final List<Path> files, final Collection<String> existingArchives, final ImportListener listener) throws Exception {
+		
+		log.debug("Importing {} files on {} threads.", files.size(), threads);
+		
+		long time = System.currentTimeMillis();
+		
+		/*
+		 * Only a limited number of files are extracted ahead of the one being
+		 * repacked, so a large drop never holds every archive in memory at once.
+		 */
+		int window = threads * 2;
+		
+		List<Future<Set<Archive>>> extracted = new ArrayList<>(files.size());
+		List<Future<Set<Mod>>> repacked = new ArrayList<>(files.size());
+		int[] skipped = new int[files.size()];
+		
+		try {
+			
+			for (int i = 0; i < files.size() && i < window; i++) {
+				extracted.add(TaskScheduler.submit(Lane.CPU, "Extract Mod", extractStage(files.get(i))));
+			}
+			
+			int stored = 0;
+			
+			Set<String> existing = new HashSet<>();
+			
+			for (String archiveName : existingArchives) {
+				existing.add(archiveName.toLowerCase(Locale.ENGLISH));
+			}
+			
+			Set<String> claimed = new HashSet<>(existing);
+			
+			for (int i = 0; i < files.size(); i++) {
+				
+				Set<Archive> found = getResult(extracted.get(i), files.get(i));
+				Set<Archive> archives = claim(found, claimed, existing, files.get(i));
+				skipped[i] = found.size() - archives.size();
+				extracted.set(i, null);
+				
+				repacked.add(TaskScheduler.submit(Lane.CPU, "Repack Mod", repackStage(files.get(i), archives)));
+				
+				if (i + window < files.size()) {
+					extracted.add(TaskScheduler.submit(Lane.CPU, "Extract Mod", extractStage(files.get(i + window))));
+				}
+				
+				while (stored <= i && repacked.get(stored).isDone()) {
+					listener.modFileImported(stored, files.get(stored), getResult(repacked.get(stored), files.get(stored)), skipped[stored]);
+					stored++;
+				}
+				
+			}
+			
+			while (stored < files.size()) {
+				listener.modFileImported(stored, files.get(stored), getResult(repacked.get(stored), files.get(stored)), skipped[stored]);
+				stored++;
+			}
+			
+		} finally {
+			//Only does anything if the listener failed part way through
+			TaskScheduler.cancel(extracted);
+			TaskScheduler.cancel(repacked);
+		}
+		
+		log.debug("Time to import {} files: {}ms", files.size(), (System.currentTimeMillis() - time));
+		
+	}
+	
+	private Callable<Set<Archive>> extractStage(final Path file) {
+		
+		return new Callable<Set<Archive>>() {
+			
+			@Override
+			public Set<Archive> call() throws Exception {
+				
+				log.debug("Loading mod: {}", file);
+				
+				try {
+					return Mod.processModFile(file, settingsFactory);
+				} catch (IOException | StarDBException | ParseException e) {
+					log.error(new ParameterizedMessage("Extracting mod file: {}", file), e);
+					return new HashSet<>();
+				}
+				
+			}
+			
+		};
+		
+	}
+	
+	private Callable<Set<Mod>> repackStage(final Path file, final Set<Archive> archives) {
+		
+		return new Callable<Set<Mod>>() {
+			
+			@Override
+			public Set<Mod> call() throws Exception {
+				
+				log.debug("Repacking {} archives from: {}", archives.size(), file);
+				
+				//The load order is assigned when the listener stores the mods
+				return Mod.repack(archives, -1, settingsFactory, localizerFactory);
+				
+			}
+			
+		};
+		
+	}
+	
+	/*
+	 * Repacking writes over whatever archive has the same name, so mods whose
+	 * archive belongs to a mod already in the database, or to a mod in an
+	 * earlier file of this import, are skipped and their archive is left as
+	 * it is.
+	 */
+	private static Set<Archive> claim(final Set<Archive> archives, final Set<String> claimed, final Set<String> existing, final Path file) {
+		
+		Set<Archive> unclaimed = new HashSet<>();
+		
+		for (Archive archive : archives) {
+			if (claimed.add(Mod.getRepackName(archive))) {
+				unclaimed.add(archive);
+			} else {
+				if (existing.contains(Mod.getRepackName(archive))) {
+					log.info("Skipping '{}' from '{}', the mod already exists.", archive.getFileName(), file);
+				} else {
+					log.info("Skipping '{}' from '{}', an earlier file in this import already contains it.", archive.getFileName(), file);
+				}
+				archive.close();
+			}
+		}
+		
+		return unclaimed;
+		
+	}
+	
+	private static <T> Set<T> getResult(final Future<Set<T>> future, final Path file) throws InterruptedException {
+		
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			log.error(new ParameterizedMessage("Importing mod file: {}", file), e.getCause());
+			return new HashSet<>();
+		}
+		
+	}
+	
+}
@@ -0,0 +1,714 @@
+package net.krazyweb.starmodmanager.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import name.fraser.neil.plaintext.diff_match_patch;
+import name.fraser.neil.plaintext.diff_match_patch.Diff;
+import name.fraser.neil.plaintext.diff_match_patch.Patch;
+import net.krazyweb.helpers.Archive;
+import net.krazyweb.helpers.ArchiveFile;
+import net.krazyweb.helpers.BlobStore;
+import net.krazyweb.helpers.ChecksumEngine;
+import net.krazyweb.helpers.ChecksumEngine.Algorithm;
+import net.krazyweb.helpers.DiskCache;
+import net.krazyweb.helpers.FileFingerprint;
+import net.krazyweb.helpers.FileHelper;
+import net.krazyweb.helpers.JsonMerger;
+import net.krazyweb.helpers.JsonMerger.Conflict;
+import net.krazyweb.helpers.TaskScheduler;
+import net.krazyweb.helpers.TaskScheduler.Lane;
+import net.krazyweb.stardb.exceptions.StarDBException;
+import net.krazyweb.starmodmanager.data.Mod.ModOrderComparator;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.eclipsesource.json.ParseException;
+
+/*
+ * Brings the game's mods folder in line with a set of installed mods.
+ * 
+ * Every file the installed mods should put on disk is described by a
+ * signature: which mod (and which version of it, by checksum) it is copied
+ * from, or which mods it is merged from and in what order. The signatures of
+ * the files currently on disk are kept in a manifest, so installing or
+ * removing a mod only deletes and writes the files whose signature changed.
+ * Files are placed as hard links into a content-addressed store under
+ * data/blobs, so installing, uninstalling and reinstalling mostly just
+ * creates and removes links, and identical files are stored once.
+ * 
+ * Without a manifest (first run, or after a failed install) nothing on disk
+ * can be trusted, so the folders of the installed mods and the patch folder
+ * are deleted and everything is written again.
+ */
+class ModInstaller {
+	
+	private static final Logger log = LogManager.getLogger(ModInstaller.class);
+	
+	private static final Path MANIFEST_PATH = Paths.get("data", "installmanifest.json");
+	private static final String PATCH_MODINFO = "ModManagerPatch.modinfo";
+	
+	//Changing how files are merged must change this, so old results aren't reused
+	private static final String MERGE_VERSION = "json1";
+	
+	private static final DiskCache mergeCache = new DiskCache(Paths.get("data", "mergecache"), 0);
+	private static final BlobStore blobs = new BlobStore(Paths.get("data", "blobs"));
+	
+	protected static interface ProgressListener {
+		public void progress(final long done, final long total);
+	}
+	
+	/*
+	 * A single file in the game's mods folder and where its contents come from.
+	 * A copied file has one mod; a merged file lists its mods in the order the
+	 * merge is applied.
+	 */
+	private static class Target {
+		
+		private Path path;
+		private Path source;
+		private List<Mod> mods;
+		private boolean merge;
+		private String signature;
+		
+		private Target(final Path path, final Path source, final List<Mod> mods, final boolean merge, final String signature) {
+			this.path = path;
+			this.source = source;
+			this.mods = mods;
+			this.merge = merge;
+			this.signature = signature;
+		}
+		
+	}
+	
+	private SettingsModelInterface settings;
+	private ModPathIndex pathIndex;
+	
+	private Path root;
+	private Path patchFolder;
+	
+	private Map<Mod, Archive> archives = new HashMap<>();
+	private AssetCache assets;
+	
+	private Set<Path> changed = new HashSet<>();
+	
+	/*
+	 * Maps the signature and source of every file that has been written to
+	 * the blob holding its contents, so placing the same file again (e.g.
+	 * reinstalling a mod) doesn't need its archive to be opened.
+	 */
+	private Map<String, String> blobIndex = new ConcurrentHashMap<>();
+	
+	protected ModInstaller(final SettingsModelInterface settings, final ModPathIndex pathIndex) {
+		this.settings = settings;
+		this.pathIndex = pathIndex;
+		root = settings.getPropertyPath("starboundpath").resolve("mods");
+		patchFolder = settings.getPropertyPath("patchfolder");
+		mergeCache.setBudget(settings.getPropertyInt("mergecachesize") * 1024L * 1024L);
+		assets = AssetCache.getInstance(settings);
+	}
+	
+	/*
+	 * Installs exactly the given mods. Only one install runs at a time, as
+	 * they share the manifest and the game's mods folder.
+	 */
+	protected void install(final List<Mod> installedMods, final ProgressListener listener) throws IOException, StarDBException {
+		synchronized (ModInstaller.class) {
+			reconcile(installedMods, listener);
+		}
+	}
+	
+	/*
+	 * Returns every path in the game's mods folder that the last install
+	 * wrote or deleted.
+	 */
+	protected Set<Path> getChangedPaths() {
+		return Collections.unmodifiableSet(changed);
+	}
+	
+	/*
+	 * Forgets what is on disk, so the next install writes every file again.
+	 * Used when the installed files have been changed outside of the mod
+	 * manager, since changed files would otherwise be trusted. Installed
+	 * files are linked to their blobs, so the blobs are checked again too.
+	 */
+	protected static void invalidate() throws IOException {
+		synchronized (ModInstaller.class) {
+			Files.deleteIfExists(MANIFEST_PATH);
+			blobs.recheck();
+		}
+	}
+	
+	private void reconcile(final List<Mod> installedMods, final ProgressListener listener) throws IOException, StarDBException {
+		
+		long time = System.currentTimeMillis();
+		
+		Map<String, String> manifest = readManifest();
+		Map<Path, Target> targets = getTargets(installedMods);
+		
+		changed.clear();
+		
+		if (manifest == null) {
+			
+			log.info("No install manifest found for '{}', reinstalling all mods.", root);
+			
+			for (Mod mod : installedMods) {
+				changed.add(root.resolve(mod.getInternalName()));
+				FileHelper.deleteFile(root.resolve(mod.getInternalName()));
+			}
+			
+			changed.add(root.resolve(patchFolder));
+			FileHelper.deleteFile(root.resolve(patchFolder));
+			
+			manifest = new HashMap<>();
+			
+		}
+		
+		List<Path> toRemove = new ArrayList<>();
+		List<Target> toWrite = new ArrayList<>();
+		
+		for (String path : manifest.keySet()) {
+			Target target = targets.get(Paths.get(path));
+			if (target == null || !target.signature.equals(manifest.get(path))) {
+				toRemove.add(Paths.get(path));
+			}
+		}
+		
+		for (Target target : targets.values()) {
+			if (!target.signature.equals(manifest.get(target.path.toString())) || Files.notExists(root.resolve(target.path))) {
+				toWrite.add(target);
+			}
+		}
+		
+		log.debug("Install: {} files to remove, {} files to write, {} files unchanged.", toRemove.size(), toWrite.size(), targets.size() - toWrite.size());
+		
+		final long total = toRemove.size() + toWrite.size();
+		final AtomicLong done = new AtomicLong();
+		
+		boolean succeeded = false;
+		
+		List<Future<Void>> tasks = new ArrayList<>();
+		
+		//Until the manifest is written again, the files on disk can't be trusted
+		Files.deleteIfExists(MANIFEST_PATH);
+		
+		try {
+			
+			for (Path path : toRemove) {
+				
+				changed.add(root.resolve(path));
+				Files.deleteIfExists(root.resolve(path));
+				deleteEmptyParents(root.resolve(path));
+				manifest.remove(path.toString());
+				
+				listener.progress(done.incrementAndGet(), total);
+				
+			}
+			
+			/*
+			 * Every file is produced independently (the contributors of each
+			 * merged path are known up front), so they are all written in
+			 * parallel, one task per file.
+			 */
+			//Merges look up the game's assets, whose file list is checked once here rather than on every lookup
+			for (Target target : toWrite) {
+				if (target.merge) {
+					assets.validate();
+					break;
+				}
+			}
+			
+			for (final Target target : toWrite) {
+				changed.add(root.resolve(target.path));
+				tasks.add(TaskScheduler.submit(Lane.CPU, "Install File", new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						write(target);
+						listener.progress(done.incrementAndGet(), total);
+						return null;
+					}
+				}));
+			}
+			
+			for (int i = 0; i < tasks.size(); i++) {
+				
+				try {
+					tasks.get(i).get();
+				} catch (final ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					} else if (e.getCause() instanceof StarDBException) {
+						throw (StarDBException) e.getCause();
+					}
+					throw new IOException(e.getCause());
+				}
+				
+				manifest.put(toWrite.get(i).path.toString(), toWrite.get(i).signature);
+				
+			}
+			
+			succeeded = true;
+			
+		} catch (final InterruptedException e) {
+			throw new IOException("Install interrupted", e);
+		} finally {
+			
+			//The files still being written need their archives, so they're stopped first
+			try {
+				TaskScheduler.cancel(tasks);
+			} catch (final InterruptedException e) {
+				log.error("", e);
+			}
+			
+			for (Archive archive : archives.values()) {
+				archive.close();
+			}
+			
+			archives.clear();
+			
+			if (succeeded) {
+				removeUnusedBlobs(targets.values());
+				writeManifest(manifest);
+			}
+			
+		}
+		
+		log.debug("Time to install {} mods: {}ms", installedMods.size(), System.currentTimeMillis() - time);
+		
+	}
+	
+	private void write(final Target target) throws IOException, StarDBException {
+		
+		log.debug("Writing: {}", target.path);
+		
+		String key = getContentKey(target);
+		String hash = blobIndex.get(key);
+		
+		if (hash == null || !blobs.contains(hash)) {
+			hash = blobs.put(getData(target));
+			blobIndex.put(key, hash);
+		}
+		
+		blobs.place(hash, root.resolve(target.path));
+		
+	}
+	
+	private static String getContentKey(final Target target) {
+		return target.signature + "\n" + target.source;
+	}
+	
+	/*
+	 * Blobs are kept for the files currently installed, and for the files of
+	 * every mod still in the mod list so it can be reinstalled quickly. Merged
+	 * files that are no longer installed can be rebuilt from the merge cache.
+	 */
+	private void removeUnusedBlobs(final Collection<Target> targets) throws IOException {
+		
+		Set<String> liveKeys = new HashSet<>();
+		Set<String> liveMods = new HashSet<>();
+		
+		for (Target target : targets) {
+			liveKeys.add(getContentKey(target));
+		}
+		
+		for (Mod mod : pathIndex.getMods()) {
+			liveMods.add("copy " + describe(mod));
+		}
+		
+		Iterator<Map.Entry<String, String>> iterator = blobIndex.entrySet().iterator();
+		
+		while (iterator.hasNext()) {
+			String key = iterator.next().getKey();
+			if (!liveKeys.contains(key) && !liveMods.contains(key.substring(0, key.indexOf('\n')))) {
+				iterator.remove();
+			}
+		}
+		
+		blobs.retainAll(new HashSet<>(blobIndex.values()));
+		
+	}
+	
+	/*
+	 * Works out every file the given mods should put on disk. Files that only
+	 * one mod replaces go into that mod's own folder; files replaced by several
+	 * mods go into the patch folder, either merged (JSON) or taken from the
+	 * mod first in the load order.
+	 */
+	private Map<Path, Target> getTargets(final List<Mod> installedMods) throws IOException {
+		
+		List<Mod> sortedMods = new ArrayList<>(installedMods);
+		Collections.sort(sortedMods, new ModOrderComparator());
+		
+		Set<Path> conflictingFiles = pathIndex.getConflictingFiles(sortedMods);
+		
+		Map<Path, Target> targets = new LinkedHashMap<>();
+		
+		for (Mod mod : sortedMods) {
+			for (ModFile file : mod.getFiles()) {
+				
+				if (conflictingFiles.contains(file.getPath())) {
+					continue;
+				}
+				
+				Path path = Paths.get(mod.getInternalName()).resolve(file.getPath());
+				targets.put(path, new Target(path, file.getPath(), Collections.singletonList(mod), false, "copy " + describe(mod)));
+				
+			}
+		}
+		
+		if (conflictingFiles.isEmpty()) {
+			return targets;
+		}
+		
+		String base = getBaseFingerprint();
+		
+		for (Path file : conflictingFiles) {
+			
+			List<Mod> contributors = new ArrayList<>();
+			Set<Mod> modsWithPath = pathIndex.getModsWithPath(file);
+			Set<String> hashes = new HashSet<>();
+			
+			for (Mod mod : sortedMods) {
+				
+				if (!modsWithPath.contains(mod)) {
+					continue;
+				}
+				
+				/*
+				 * A later copy identical to one already taken adds nothing to
+				 * the merge, so only the first mod in the load order with a
+				 * given version of the file contributes it.
+				 */
+				String hash = pathIndex.getHash(file, mod);
+				
+				if (hash == null || hashes.add(hash)) {
+					contributors.add(mod);
+				}
+				
+			}
+			
+			Path path = patchFolder.resolve(file);
+			
+			if (FileHelper.isJSON(file)) {
+				
+				//Merges are applied from the last mod in the load order to the first
+				Collections.reverse(contributors);
+				
+				StringBuilder signature = new StringBuilder("jsonmerge ").append(base);
+				
+				for (Mod mod : contributors) {
+					signature.append(" ").append(describe(mod));
+				}
+				
+				targets.put(path, new Target(path, file, contributors, true, signature.toString()));
+				
+			} else {
+				targets.put(path, new Target(path, file, contributors.subList(0, 1), false, "copy " + describe(contributors.get(0))));
+			}
+			
+		}
+		
+		Path modinfo = patchFolder.resolve(PATCH_MODINFO);
+		targets.put(modinfo, new Target(modinfo, null, new ArrayList<Mod>(), false, "modinfo"));
+		
+		return targets;
+		
+	}
+	
+	private static String describe(final Mod mod) {
+		return mod.getInternalName() + ":" + mod.getChecksum();
+	}
+	
+	/*
+	 * Merged files depend on the game's own assets too, so a game update
+	 * must invalidate them.
+	 */
+	private String getBaseFingerprint() throws IOException {
+		
+		Path packed = settings.getPropertyPath("starboundpath").resolve("assets").resolve("packed.pak");
+		
+		if (Files.notExists(packed)) {
+			return "none";
+		}
+		
+		return FileFingerprint.of(packed).toString();
+		
+	}
+	
+	private byte[] getData(final Target target) throws IOException, StarDBException {
+		
+		if (target.source == null) {
+			return IOUtils.toByteArray(ModList.class.getClassLoader().getResourceAsStream(PATCH_MODINFO));
+		}
+		
+		if (!target.merge) {
+			
+			ArchiveFile file = getArchive(target.mods.get(0)).getFile(target.source);
+			
+			if (file == null) {
+				throw new IOException("File '" + target.source + "' not found in archive: " + target.mods.get(0).getArchiveName());
+			}
+			
+			return file.getData();
+			
+		}
+		
+		return merge(target.source, target.mods);
+		
+	}
+	
+	/*
+	 * Mods are given in the order their changes are applied; the last one
+	 * takes precedence. Files are merged structurally, unless one of them
+	 * can't be parsed as JSON (e.g. it contains comments), in which case
+	 * the changes are merged as text.
+	 * 
+	 * Results are cached by the hashes of their inputs, so reordering or
+	 * toggling mods doesn't redo merges whose inputs haven't changed.
+	 */
+	private byte[] merge(final Path path, final List<Mod> mods) throws IOException, StarDBException {
+		
+		byte[] originalData = null;
+		
+		if (assets.contains("/" + path.toString())) {
+			originalData = assets.getAsset("/" + path.toString());
+		}
+		
+		List<byte[]> changedData = new ArrayList<>();
+		
+		StringBuilder key = new StringBuilder(MERGE_VERSION);
+		key.append(" ").append(originalData == null ? "none" : ChecksumEngine.toHex(ChecksumEngine.digest(originalData, Algorithm.SHA256)));
+		
+		for (Mod mod : mods) {
+			byte[] data = getArchive(mod).getFile(path).getData();
+			changedData.add(data);
+			key.append(" ").append(ChecksumEngine.toHex(ChecksumEngine.digest(data, Algorithm.SHA256)));
+		}
+		
+		byte[] output = mergeCache.get(key.toString());
+		
+		if (output != null) {
+			log.debug("Merge cache hit: {}", path);
+			return output;
+		}
+		
+		String originalFile = originalData == null ? null : new String(originalData);
+		List<String> changedFiles = new ArrayList<>();
+		
+		for (byte[] data : changedData) {
+			changedFiles.add(new String(data));
+		}
+		
+		try {
+			output = mergeJson(path, originalFile, mods, changedFiles).getBytes();
+		} catch (final ParseException e) {
+			log.warn("Could not parse '{}' as JSON, merging as text instead: {}", path, e.getMessage());
+			output = mergeText(path, originalFile == null ? changedFiles.get(0) : originalFile, mods, changedFiles).getBytes();
+		}
+		
+		mergeCache.put(key.toString(), output);
+		
+		return output;
+		
+	}
+	
+	private String mergeJson(final Path path, final String originalFile, final List<Mod> mods, final List<String> changedFiles) {
+		
+		JsonValue base = originalFile == null ? null : JsonValue.readFrom(originalFile);
+		
+		List<JsonValue> versions = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		
+		for (int i = 0; i < mods.size(); i++) {
+			versions.add(JsonValue.readFrom(changedFiles.get(i)));
+			names.add(mods.get(i).getInternalName());
+		}
+		
+		JsonMerger merger = new JsonMerger(base, versions, names);
+		
+		for (Conflict conflict : merger.getConflicts()) {
+			log.warn("Merge conflict in {} at {}", path, conflict);
+		}
+		
+		return merger.getResult().toString();
+		
+	}
+	
+	private String mergeText(final Path path, final String originalFile, final List<Mod> mods, final List<String> changedFiles) {
+		
+		String outputFile = "";
+		
+		diff_match_patch dpm = new diff_match_patch();
+		LinkedList<Patch> patchesToApply = new LinkedList<Patch>();
+		
+		for (int i = 0; i < mods.size(); i++) {
+			
+			Mod mod = mods.get(i);
+			
+			String changedFile = changedFiles.get(i);
+			
+			if (i != mods.size() - 1) {
+				
+				log.debug("Merging file for {} : {}", mod.getDisplayName(), path);
+				
+				LinkedList<Diff> diff = dpm.diff_main(originalFile, changedFile);
+				LinkedList<Patch> patches = dpm.patch_make(diff);
+				patchesToApply.addAll(patches);
+				
+			} else {
+				
+				log.debug("Applying merged changes onto {} : {}", mod.getDisplayName(), path);
+				
+				outputFile = (String) dpm.patch_apply(patchesToApply, changedFile)[0];
+				
+			}
+			
+		}
+		
+		return outputFile;
+		
+	}
+	
+	private Archive getArchive(final Mod mod) throws IOException {
+		synchronized (archives) {
+			return openArchive(mod);
+		}
+	}
+	
+	private Archive openArchive(final Mod mod) throws IOException {
+		
+		Archive archive = archives.get(mod);
+		
+		if (archive == null) {
+			
+			archive = new Archive(settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()));
+			
+			if (!archive.open()) {
+				throw new IOException("Could not open archive: " + mod.getArchiveName());
+			}
+			
+			archives.put(mod, archive);
+			
+		}
+		
+		return archive;
+		
+	}
+	
+	private void deleteEmptyParents(final Path path) throws IOException {
+		
+		Path parent = path.getParent();
+		
+		while (parent != null && !parent.equals(root) && parent.startsWith(root) && Files.isDirectory(parent)) {
+			
+			try (DirectoryStream<Path> contents = Files.newDirectoryStream(parent)) {
+				if (contents.iterator().hasNext()) {
+					return;
+				}
+			}
+			
+			Files.delete(parent);
+			parent = parent.getParent();
+			
+		}
+		
+	}
+	
+	/*
+	 * Returns null if there is no manifest, or if it describes a different
+	 * game folder.
+	 */
+	private Map<String, String> readManifest() {
+		
+		if (Files.notExists(MANIFEST_PATH)) {
+			return null;
+		}
+		
+		try (Reader reader = Files.newBufferedReader(MANIFEST_PATH, StandardCharsets.UTF_8)) {
+			
+			JsonObject manifest = JsonObject.readFrom(reader);
+			
+			if (manifest.get("root") == null || !manifest.get("root").asString().equals(root.toAbsolutePath().toString())) {
+				return null;
+			}
+			
+			Map<String, String> files = new HashMap<>();
+			JsonObject fileList = manifest.get("files").asObject();
+			
+			for (String name : fileList.names()) {
+				files.put(name, fileList.get(name).asString());
+			}
+			
+			if (manifest.get("blobs") != null) {
+				
+				JsonObject blobList = manifest.get("blobs").asObject();
+				
+				for (String key : blobList.names()) {
+					blobIndex.put(key, blobList.get(key).asString());
+				}
+				
+			}
+			
+			return files;
+			
+		} catch (final IOException | RuntimeException e) {
+			log.error("Reading install manifest", e);
+			return null;
+		}
+		
+	}
+	
+	private void writeManifest(final Map<String, String> files) throws IOException {
+		
+		JsonObject fileList = new JsonObject();
+		
+		for (Map.Entry<String, String> file : files.entrySet()) {
+			fileList.add(file.getKey(), file.getValue());
+		}
+		
+		JsonObject blobList = new JsonObject();
+		
+		for (Map.Entry<String, String> blob : blobIndex.entrySet()) {
+			blobList.add(blob.getKey(), blob.getValue());
+		}
+		
+		JsonObject manifest = new JsonObject();
+		manifest.add("root", root.toAbsolutePath().toString());
+		manifest.add("files", fileList);
+		manifest.add("blobs", blobList);
+		
+		Files.createDirectories(MANIFEST_PATH.getParent());
+		
+		try (Writer writer = Files.newBufferedWriter(MANIFEST_PATH, StandardCharsets.UTF_8)) {
+			manifest.writeTo(writer);
+		}
+		
+	}
+	
+}
@@ -2,38 +2,35 @@ package net.krazyweb.starmodmanager.data;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.concurrent.Task;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
-import name.fraser.neil.plaintext.diff_match_patch;
-import name.fraser.neil.plaintext.diff_match_patch.Diff;
-import name.fraser.neil.plaintext.diff_match_patch.Patch;
-import net.krazyweb.helpers.Archive;
+import net.krazyweb.helpers.CanonicalPathSet;
 import net.krazyweb.helpers.FileHelper;
-import net.krazyweb.stardb.databases.AssetDatabase;
+import net.krazyweb.helpers.TaskScheduler;
+import net.krazyweb.helpers.TaskScheduler.Lane;
 import net.krazyweb.starmodmanager.data.Mod.ModOrderComparator;
 import net.krazyweb.starmodmanager.dialogue.MessageDialogue;
 import net.krazyweb.starmodmanager.dialogue.ProgressDialogue;
 import net.krazyweb.starmodmanager.dialogue.MessageDialogue.MessageType;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.ParameterizedMessage;
@@ -51,8 +48,12 @@ public class ModList implements ModListModelInterface {
 	private LocalizerModelInterface localizer;
 	
 	private boolean locked;
+	private boolean orderChanged; //Set by moveMod() until the new order is saved with saveModOrder()
 	
 	private List<Mod> mods;
+	private ModPathIndex pathIndex = new ModPathIndex();
+	
+	private volatile ModFolderWatcher watcher;
 	
 	private Set<Observer> observers;
 	
@@ -97,75 +98,121 @@ public class ModList implements ModListModelInterface {
 				
 				Files.createDirectories(settings.getPropertyPath("modsdir"));
 				
-				Set<Path> toRemove = new HashSet<>();
+				final Set<Path> toRemove = new HashSet<>();
+				final CanonicalPathSet sourceFiles = new CanonicalPathSet(files);
 				
-				for (int i = 0; i < files.size(); i++) {
-					
-					Path file = files.get(i);
-					
-					this.updateMessage(localizer.getMessage("modlist.loadingmod") + file.getFileName());
-					
-					Set<Mod> modsToAdd = Mod.load(file, mods.size(), new SettingsFactory(), new DatabaseFactory(), new LocalizerFactory());
-					
-					if (modsToAdd == null || modsToAdd.isEmpty()) {
-						recoverableErrorOccurred.value = true;
-						continue;
-					}
-					
+				ModImporter importer = new ModImporter(new SettingsFactory(), new LocalizerFactory());
+				
+				//Hidden mods are included, so their archives aren't written over
+				List<String> existingArchives = new ArrayList<>();
+				
+				for (String modData : database.getModNames()) {
+					existingArchives.add(modData.split("\n")[1]);
+				}
+				
+				importer.importFiles(files, existingArchives, new ModImporter.ImportListener() {
 					
-					for (Mod mod : modsToAdd) {
-						if (!currentMods.contains(mod.getInternalName())) {
-							
-							mods.add(mod);
-							newMods.add(mod);
-							
-							for (Path path : files) {
-								if (Files.isSameFile(settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()), path)) {
-									toRemove.add(path);
-									log.debug("File is used by mod manager, will not delete: {} - {}", settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()), path);
-								} else {
-									
-									Path parent = path.getParent();
-									
-									while (parent != null) {
-										if (parent.equals(settings.getPropertyPath("modsdir"))) {
-											break;
-										}
-										parent = parent.getParent(); 
-									}
-									
-									if (parent == null) {
-										log.debug("File is not in the mod manager's mod directory, will not delete: {} - {}", settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()), path);
+					@Override
+					public void modFileImported(final int index, final Path file, final Set<Mod> modsToAdd, final int skipped) throws Exception {
+						
+						updateMessage(localizer.getMessage("modlist.loadingmod") + file.getFileName());
+						
+						if (skipped > 0) {
+							skipExisting(file);
+						}
+						
+						if (modsToAdd.isEmpty() && skipped == 0) {
+							recoverableErrorOccurred.value = true;
+							updateProgress(index + 1, files.size());
+							return;
+						}
+						
+						/*
+						 * A file may contain several mods; sort them so they are given the
+						 * same load order no matter which order they were repacked in.
+						 */
+						List<Mod> sortedMods = new ArrayList<>(modsToAdd);
+						Collections.sort(sortedMods, new Comparator<Mod>() {
+							@Override
+							public int compare(final Mod mod1, final Mod mod2) {
+								return mod1.getInternalName().compareTo(mod2.getInternalName());
+							}
+						});
+						
+						for (Mod mod : sortedMods) {
+							if (!currentMods.contains(mod.getInternalName())) {
+								
+								mod.setOrder(mods.size());
+								
+								try {
+									database.updateMod(mod);
+								} catch (final SQLException e) {
+									log.error("", e);
+									recoverableErrorOccurred.value = true;
+									continue;
+								}
+								
+								currentMods.add(mod.getInternalName());
+								mods.add(mod);
+								pathIndex.add(mod);
+								newMods.add(mod);
+								
+								Path archive = sourceFiles.get(settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()));
+								
+								for (Path path : files) {
+									if (path.equals(archive)) {
 										toRemove.add(path);
+										log.debug("File is used by mod manager, will not delete: {} - {}", settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()), path);
+									} else {
+										
+										Path parent = path.getParent();
+										
+										while (parent != null) {
+											if (parent.equals(settings.getPropertyPath("modsdir"))) {
+												break;
+											}
+											parent = parent.getParent(); 
+										}
+										
+										if (parent == null) {
+											log.debug("File is not in the mod manager's mod directory, will not delete: {} - {}", settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()), path);
+											toRemove.add(path);
+										}
+										
 									}
-									
-								}
-							}
-							
-						} else {
-							//TODO Notify user of mod existence
-							log.debug("Mod already exists, skipping: {}", file);
-							
-							Path parent = file.getParent();
-							
-							while (parent != null) {
-								if (parent.equals(settings.getPropertyPath("modsdir"))) {
-									break;
 								}
-								parent = parent.getParent();
-							}
-							
-							if (parent == null) {
-								log.debug("File is not in the mod manager's mod directory, will not delete: {} - {}", settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()), file);
-								toRemove.add(file);
+								
+							} else {
+								skipExisting(file);
 							}
-							
 						}
+						
+						updateProgress(index + 1, files.size());
+						
 					}
 					
-					this.updateProgress(i, files.size());
+					private void skipExisting(final Path file) {
+						
+						//TODO Notify user of mod existence
+						log.debug("Mod already exists, skipping: {}", file);
+						
+						Path parent = file.getParent();
+						
+						while (parent != null) {
+							if (parent.equals(settings.getPropertyPath("modsdir"))) {
+								break;
+							}
+							parent = parent.getParent();
+						}
+						
+						if (parent == null) {
+							log.debug("File is not in the mod manager's mod directory, will not delete: {}", file);
+							toRemove.add(file);
+						}
+						
+					}
 					
-				}
+				});
 				
 				files.removeAll(toRemove);
 				
@@ -190,6 +237,7 @@ public class ModList implements ModListModelInterface {
 			@Override
 			public void handle(WorkerStateEvent t) {
 				log.error("Error occurred while getting mods!", addModsTask.getException());
+				resumeWatcher();
 				MessageDialogue dialogue = new MessageDialogue(localizer.getMessage("modlist.addmoderror"), localizer.getMessage("modlist.addmoderror.title"), MessageType.ERROR, new LocalizerFactory());
 				dialogue.getResult();
 				progress.close();
@@ -200,6 +248,8 @@ public class ModList implements ModListModelInterface {
 			@Override
 			public void handle(WorkerStateEvent t) {
 				
+				resumeWatcher();
+				
 				if (recoverableErrorOccurred.value) {
 					MessageDialogue dialogue = new MessageDialogue(localizer.getMessage("modlisttask.recoverableerror"), localizer.getMessage("modlisttask.recoverableerror.title"), MessageType.ERROR, new LocalizerFactory());
 					dialogue.getResult();
@@ -218,10 +268,10 @@ public class ModList implements ModListModelInterface {
 		progress.getText().textProperty().bind(addModsTask.messageProperty());
 		progress.start();
 		
-		Thread t = new Thread(addModsTask);
-		t.setName("Add Mods Thread");
-		t.setDaemon(true);
-		t.start();
+		//Importing repacks mods into the mods folder
+		suppressWatcher();
+		
+		TaskScheduler.execute(Lane.IO, "Add Mods", addModsTask);
 		
 	}
 
@@ -254,170 +304,35 @@ public class ModList implements ModListModelInterface {
 		
 	}
 	
-	@Override
-	public Task<Void> getInstallModTask(final Mod mod) {
+	/*
+	 * Returns a task that brings the game's mods folder in line with the
+	 * given list of installed mods. Only files that change are written.
+	 */
+	private Task<Void> getInstallerTask(final List<Mod> installedMods) {
 		
-		final Task<Void> installModsTask = new Task<Void>() {
+		return new Task<Void>() {
 
 			@Override
 			protected Void call() throws Exception {
 				
 				this.updateProgress(0, 1);
 				
-				//Get every installed mod, including the one to be installed
-				List<Mod> installedMods = getInstalledMods();
-				installedMods.add(mod);
-				
-				//Then separate out those with conflicts
-				List<Mod> conflictingMods = getConflictingMods(installedMods);
-				
-				//No new conflicts were found, so just install the new mod normally
-				if (!conflictingMods.contains(mod)) {
-					Archive archive = new Archive(settings.getPropertyPath("modsdir").resolve(mod.getArchiveName()));
-					archive.extract();
-					archive.extractToFolder(settings.getPropertyPath("starboundpath").resolve("mods").resolve(mod.getInternalName()));
-					this.updateProgress(1, 1);
-					return null;
-				}
-				
-				//Delete the folders of the other mods if they exist; new conflicts may exist with the new mod
-				for (Mod m : conflictingMods) {
-					FileHelper.deleteFile(settings.getPropertyPath("starboundpath").resolve("mods").resolve(m.getInternalName()));
-				}
-				
-				Set<Path> modifiedFiles = conflictingFiles(conflictingMods);
-				
-				Map<Mod, Archive> modArchives = new HashMap<>();
-				
-				for (Mod m : installedMods) {
-					Archive archive = new Archive(settings.getPropertyPath("modsdir").resolve(m.getArchiveName()));
-					archive.extract();
-					modArchives.put(m, archive);
-				}
+				suppressWatcher();
 				
-				//Find all the non-conflicting files in each of those mods
-				//Copy the non-conflicting files to a their own mods' folders
-				FileHelper.deleteFile(settings.getPropertyPath("starboundpath").resolve("mods").resolve(settings.getPropertyPath("patchfolder")));
+				ModInstaller installer = new ModInstaller(settings, pathIndex);
 				
-				for (Mod m : conflictingMods) {
-					for (ModFile file : m.getFiles()) {
-						if (!modifiedFiles.contains(file.getPath())) {
-							log.debug("Path: {}", file.getPath());
-							modArchives.get(m).extractFileToFolder(file.getPath(), settings.getPropertyPath("starboundpath").resolve("mods").resolve(m.getInternalName()));
-						}
-					}
-				}
-				
-				//Copy all non-JSON conflicting files into the patch folder
-				//Make sure to respect the load order here
-				
-				Collections.reverse(conflictingMods);
-				
-				log.debug("Load order for conflicting mods (reversed):");
-				for (Mod m : conflictingMods) {
-					log.debug("  [{}] - {}", m.getOrder(), m.getDisplayName());
-				}
-				
-				for (Mod m : conflictingMods) {
-					for (ModFile file : m.getFiles()) {
-						if (modifiedFiles.contains(file.getPath()) && !file.isJson()) {
-							modArchives.get(m).extractFileToFolder(file.getPath(), settings.getPropertyPath("starboundpath").resolve("mods").resolve(settings.getPropertyPath("patchfolder")));
-						}
-					}
-				}
-				
-				AssetDatabase db = AssetDatabase.open(settings.getPropertyPath("starboundpath").resolve("assets").resolve("packed.pak"));
-								
-				//Get all JSON files and merge them, then save them
-				for (Path path : modifiedFiles) {
-					
-					if (!FileHelper.isJSON(path)) {
-						continue;
-					}
-
-					String originalFile = null;
-					String outputFile = "";
-					
-					if (db.getFileList().contains("/" + path.toString())) {
-						
-						log.debug("Retrieving asset {} from database.", "/" + path.toString());
-						
-						originalFile = new String(db.getAsset("/" + path.toString()));
-						
-					} else {
-						
-						boolean found = false;
-						
-						for (Mod m : conflictingMods) {
-							
-							if (found) {
-								break;
-							}
-							
-							for (ModFile file : m.getFiles()) {
-								if (file.getPath().equals(path)) {
-									originalFile = new String(modArchives.get(m).getFile(path).getData());
-									found = true;
-									break;
-								}
-							}
-							
-						}
-						
-					}
-					
-					diff_match_patch dpm = new diff_match_patch();
-					LinkedList<Patch> patchesToApply = new LinkedList<Patch>();
-					
-					for (Mod m : conflictingMods) {
-						for (ModFile file : m.getFiles()) {
-							
-							if (!file.getPath().toString().equals(path.toString())) {
-								continue;
-							}
-							
-							String changedFile = new String(modArchives.get(m).getFile(file.getPath()).getData());
-							
-							if (conflictingMods.indexOf(m) != conflictingMods.size() - 1) {
-								
-								log.debug("Merging file for {} : {}", m.getDisplayName(), file.getPath());
-								
-								LinkedList<Diff> diff = dpm.diff_main(originalFile, changedFile);
-								LinkedList<Patch> patches = dpm.patch_make(diff);
-								patchesToApply.addAll(patches);
-							
-							} else {
-								
-								log.debug("Merging file for 2 {}", m.getDisplayName());
-								
-								outputFile = (String) dpm.patch_apply(patchesToApply, changedFile)[0];
-								
-							}
-								
+				try {
+					installer.install(installedMods, new ModInstaller.ProgressListener() {
+						@Override
+						public void progress(final long done, final long total) {
+							updateProgress(done, total);
 						}
-					}
-					
-					Path outputPath = settings.getPropertyPath("starboundpath").resolve("mods").resolve(settings.getPropertyPath("patchfolder")).resolve(path);
-					
-					Files.createDirectories(outputPath.getParent());
-					
-					OutputStream output = Files.newOutputStream(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
-					output.write(outputFile.getBytes());
-					output.close();
-					
+					});
+				} finally {
+					ignoreInstalledPaths(installer.getChangedPaths());
+					resumeWatcher();
 				}
 				
-				//Finally, save the mod manager .modinfo file to the mod patch folder
-				Path outputPath = settings.getPropertyPath("starboundpath").resolve("mods").resolve(settings.getPropertyPath("patchfolder")).resolve("ModManagerPatch.modinfo");
-				
-				Files.createDirectories(outputPath.getParent());
-				
-				byte[] modinfoData = IOUtils.toByteArray(ModList.class.getClassLoader().getResourceAsStream("ModManagerPatch.modinfo"));
-				
-				OutputStream output = Files.newOutputStream(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
-				output.write(modinfoData);
-				output.close();
-				
 				this.updateProgress(1, 1);
 				
 				return null;
@@ -426,6 +341,20 @@ public class ModList implements ModListModelInterface {
 			
 		};
 		
+	}
+	
+	@Override
+	public Task<Void> getInstallModTask(final Mod mod) {
+		
+		//Every installed mod, including the one to be installed
+		List<Mod> installedMods = getInstalledMods();
+		
+		if (!installedMods.contains(mod)) {
+			installedMods.add(mod);
+		}
+		
+		final Task<Void> installModsTask = getInstallerTask(installedMods);
+		
 		installModsTask.setOnFailed(new EventHandler<WorkerStateEvent>() {
 			@Override
 			public void handle(final WorkerStateEvent t) {
@@ -463,13 +392,35 @@ public class ModList implements ModListModelInterface {
 				
 				log.info("Uninstalling mod: {}", mod.getInternalName());
 				
+				suppressWatcher();
+				
+				Path modFolder = settings.getPropertyPath("starboundpath").resolve("mods").resolve(mod.getInternalName());
+				ModInstaller installer = new ModInstaller(settings, pathIndex);
+				
 				try {
-					log.debug("Deleting from: {}", settings.getPropertyPath("starboundpath").resolve("mods").resolve(mod.getInternalName()));
-					FileHelper.deleteFile(
-						settings.getPropertyPath("starboundpath").resolve("mods").resolve(mod.getInternalName())
-					);
-				} catch (IOException e) {
-					log.error(new ParameterizedMessage("Uninstalling Mod: {}", mod.getInternalName()), e);
+					
+					try {
+						log.debug("Deleting from: {}", modFolder);
+						FileHelper.deleteFile(modFolder);
+					} catch (IOException e) {
+						log.error(new ParameterizedMessage("Uninstalling Mod: {}", mod.getInternalName()), e);
+					}
+					
+					//Mods that conflicted with this one get their files back out of the patch folder
+					List<Mod> installedMods = getInstalledMods();
+					installedMods.remove(mod);
+					
+					installer.install(installedMods, new ModInstaller.ProgressListener() {
+						@Override
+						public void progress(final long done, final long total) {
+							updateProgress(done, total);
+						}
+					});
+					
+				} finally {
+					ignoreInstalledPaths(Collections.singleton(modFolder));
+					ignoreInstalledPaths(installer.getChangedPaths());
+					resumeWatcher();
 				}
 				
 				return 1;
@@ -493,15 +444,6 @@ public class ModList implements ModListModelInterface {
 				
 				mod.setInstalled(false);
 				
-				if (getConflictingMods(getInstalledMods()).contains(mod)) {
-					
-					List<Mod> conflictingMods = getConflictingMods(getInstalledMods());
-					conflictingMods.remove(mod);
-					Collections.reverse(conflictingMods);
-					reinstallConflictingMods(conflictingMods);
-					
-				}
-				
 				try {
 					database.updateMod(mod);
 				} catch (final SQLException e) {
@@ -513,52 +455,54 @@ public class ModList implements ModListModelInterface {
 			}
 		});
 		
-		Thread t = new Thread(uninstallModsTask);
-		t.setName("Uninstall Mods Thread");
-		t.setDaemon(true);
-		t.start();
+		TaskScheduler.execute(Lane.INSTALL, "Uninstall Mods", uninstallModsTask);
 		
 	}
 	
 	@Override
 	public void reinstallConflictingMods(final List<Mod> oldMods) {
 		
-		List<Mod> oldConflictingMods = getConflictingMods(oldMods);
-		List<Mod> conflictingMods = getConflictingMods(getInstalledMods());
+		List<Mod> installedMods = getInstalledMods();
 		
-		for (int i = 0; i < oldConflictingMods.size(); i++) {
-			if (oldConflictingMods.get(i) != conflictingMods.get(i)) {
-				
-				Mod mod = conflictingMods.get(i);
-				
-				uninstallMod(mod);
-				
-				Task<Void> task = getInstallModTask(mod);
-				
-				final ProgressDialogue lview = new ProgressDialogue(localizer.formatMessage("modview.install.title"));
-				lview.getProgressBar().bind(task.progressProperty(), 1.0);
-				lview.getText().setText(localizer.formatMessage("modview.install.dialogue", mod.getDisplayName()));
-				
-				task.progressProperty().addListener(new ChangeListener<Number>() {
-					@Override
-					public void changed(final ObservableValue<? extends Number> observableValue, final Number oldValue, final Number newValue) {
-						if (newValue.doubleValue() >= 0.999) {
-							lview.close();
-						}
-					}
-				});
-				
-				Thread thread = new Thread(task);
-				thread.setDaemon(true);
-				thread.setName("Install Mod Thread");
-				lview.start();
-				thread.start();
-				
-				break;
-				
-			}
+		List<Mod> oldConflictingMods = new ArrayList<>(oldMods);
+		oldConflictingMods.retainAll(getConflictingMods(oldMods));
+		
+		List<Mod> conflictingMods = new ArrayList<>(installedMods);
+		conflictingMods.retainAll(getConflictingMods(installedMods));
+		
+		//Only the relative order of conflicting mods affects the installed files
+		if (oldConflictingMods.equals(conflictingMods)) {
+			return;
 		}
 		
+		Task<Void> task = getInstallerTask(installedMods);
+		
+		final ProgressDialogue lview = new ProgressDialogue(localizer.formatMessage("modview.install.title"));
+		lview.getProgressBar().bind(task.progressProperty(), 1.0);
+		lview.getText().setText(localizer.formatMessage("modview.install.title"));
+		
+		task.progressProperty().addListener(new ChangeListener<Number>() {
+			@Override
+			public void changed(final ObservableValue<? extends Number> observableValue, final Number oldValue, final Number newValue) {
+				if (newValue.doubleValue() >= 0.999) {
+					lview.close();
+				}
+			}
+		});
+		
+		task.setOnFailed(new EventHandler<WorkerStateEvent>() {
+			@Override
+			public void handle(final WorkerStateEvent t) {
+				lview.close();
+				log.error("Error occurred while installing mods!", t.getSource().getException());
+				MessageDialogue dialogue = new MessageDialogue(localizer.getMessage("modlist.installmoderror"), localizer.getMessage("modlist.installmoderror.title"), MessageType.ERROR, new LocalizerFactory());
+				dialogue.getResult();
+			}
+		});
+		
+		lview.start();
+		TaskScheduler.execute(Lane.INSTALL, "Reinstall Conflicting Mods", task);
+		
 	}
 	
 	@Override
@@ -583,6 +527,7 @@ public class ModList implements ModListModelInterface {
 	private void removeMod(final Mod mod) {
 		
 		mods.remove(mod);
+		pathIndex.remove(mod);
 		
 		Collections.sort(mods, new ModOrderComparator());
 		
@@ -623,15 +568,63 @@ public class ModList implements ModListModelInterface {
 		for (Mod m : mods) {
 			m.setOrder(mods.indexOf(m));
 			log.trace("  [{}] {}", m.getOrder(), m.getInternalName());
-			try {
-				database.updateMod(m);
-			} catch (SQLException e) {
-				log.error("", e);
-				MessageDialogue dialogue = new MessageDialogue(localizer.getMessage("modlist.dbconnectionerror.installmod"), localizer.getMessage("modlist.dbconnectionerror.title"), MessageType.ERROR, new LocalizerFactory());
-				dialogue.getResult();
-			}
 		}
 		
+		orderChanged = true;
+		
+	}
+	
+	/*
+	 * Moving a mod only changes the order in memory, since a single drag
+	 * moves it many times. The order is written once the drag is over.
+	 */
+	@Override
+	public void saveModOrder() {
+		
+		if (!orderChanged) {
+			return;
+		}
+		
+		try {
+			database.updateOrders(mods);
+			orderChanged = false;
+		} catch (SQLException e) {
+			log.error("", e);
+			MessageDialogue dialogue = new MessageDialogue(localizer.getMessage("modlist.dbconnectionerror.installmod"), localizer.getMessage("modlist.dbconnectionerror.title"), MessageType.ERROR, new LocalizerFactory());
+			dialogue.getResult();
+		}
+		
+	}
+	
+	/*
+	 * Reads the list of game assets ahead of time, so the first install
+	 * that merges files doesn't have to wait for it.
+	 */
+	public Task<Void> getWarmUpTask() {
+		
+		return new Task<Void>() {
+			@Override
+			protected Void call() throws Exception {
+				AssetCache.getInstance(settings).warm();
+				return null;
+			}
+		};
+		
+	}
+	
+	@Override
+	public Task<Void> getSaveSnapshotTask() {
+		
+		final List<Mod> snapshot = getMods();
+		
+		return new Task<Void>() {
+			@Override
+			protected Void call() throws Exception {
+				settings.setProperty(ModListSnapshot.SETTING, ModListSnapshot.write(snapshot));
+				return null;
+			}
+		};
+		
 	}
 	
 	@Override
@@ -675,83 +668,244 @@ public class ModList implements ModListModelInterface {
 		}
 		
 		this.mods = list;
+		pathIndex.rebuild(list);
 		notifyObservers("modlistupdated");
 		
 	}
 	
+	/*
+	 * Watches the mods folder for archives added or changed by hand, and the
+	 * game's mods folder for changes to installed mods, so they're picked up
+	 * without a full rescan.
+	 */
 	@Override
-	public List<Mod> getInstalledMods() {
+	public void startWatching() {
 		
-		List<Mod> installedMods = new ArrayList<>();
+		if (watcher != null) {
+			return;
+		}
 		
-		for (Mod m : mods) {
-			if (m.isInstalled()) {
-				installedMods.add(m);
-			}
+		Path installFolder = null;
+		
+		if (!settings.getPropertyString("starboundpath").trim().isEmpty()) {
+			installFolder = settings.getPropertyPath("starboundpath").resolve("mods");
 		}
 		
-		return installedMods;
+		watcher = new ModFolderWatcher(settings.getPropertyPath("modsdir"), installFolder, new ModFolderWatcher.Listener() {
+			
+			@Override
+			public void archivesChanged(final Set<Path> archives) {
+				Platform.runLater(new Runnable() {
+					@Override
+					public void run() {
+						refreshArchives(archives);
+					}
+				});
+			}
+			
+			@Override
+			public void installedFoldersChanged(final Set<String> folders) {
+				
+				try {
+					ModInstaller.invalidate();
+				} catch (final IOException e) {
+					log.error("", e);
+				}
+				
+				Platform.runLater(new Runnable() {
+					@Override
+					public void run() {
+						installedFoldersChanged(folders);
+					}
+				});
+				
+			}
+			
+		});
+		
+		try {
+			watcher.start();
+		} catch (final IOException e) {
+			log.error("", e);
+		}
 		
 	}
 	
-	private List<Mod> getConflictingMods(final List<Mod> modList) {
+	@Override
+	public void stopWatching() {
+		if (watcher != null) {
+			watcher.stop();
+		}
+	}
+	
+	private void suppressWatcher() {
+		if (watcher != null) {
+			watcher.suppress();
+		}
+	}
+	
+	private void resumeWatcher() {
+		if (watcher != null) {
+			watcher.resume();
+		}
+	}
+	
+	private void ignoreInstalledPaths(final Collection<Path> paths) {
+		if (watcher != null) {
+			watcher.ignore(paths);
+		}
+	}
+	
+	/*
+	 * Imports archives that aren't in the database, and checks the ones that
+	 * are against their fingerprints, reloading them if they've changed.
+	 */
+	private void refreshArchives(final Set<Path> archives) {
 		
-		List<Mod> conflictingMods = new ArrayList<>();
+		final List<Mod> currentMods = getMods();
+		final Map<Mod, Mod> changedMods = new HashMap<>();
+		final List<Path> newFiles = new ArrayList<>();
 		
-		for (Mod m1 : modList) {
-			for (Mod m2 : modList) {
-				if (m1 != m2 && m1.conflictsWith(m2)) {
-					if (!conflictingMods.contains(m1)) {
-						conflictingMods.add(m1);
+		final Task<Void> task = new Task<Void>() {
+			
+			@Override
+			protected Void call() throws Exception {
+				
+				//Changed mods are repacked into the mods folder when they're reloaded
+				suppressWatcher();
+				
+				try {
+					
+					//Hidden mods are included, so their archives aren't imported again
+					Set<String> knownArchives = new HashSet<>();
+					
+					for (String modData : database.getModNames()) {
+						knownArchives.add(modData.split("\n")[1]);
 					}
-					if (!conflictingMods.contains(m2)) {
-						conflictingMods.add(m2);
+					
+					for (Path path : archives) {
+						
+						String archiveName = path.getFileName().toString();
+						
+						if (!knownArchives.contains(archiveName)) {
+							if (Files.isRegularFile(path)) {
+								newFiles.add(path);
+							}
+							continue;
+						}
+						
+						for (Mod mod : currentMods) {
+							if (mod.getArchiveName().equals(archiveName)) {
+								Mod verified = ModVerifier.verify(mod, database, settings);
+								if (verified != mod) {
+									changedMods.put(mod, verified);
+								}
+							}
+						}
+						
 					}
+					
+				} finally {
+					resumeWatcher();
 				}
+				
+				return null;
+				
 			}
-		}
-		
-		Collections.sort(conflictingMods, new ModOrderComparator());
-		
-		return conflictingMods;
+			
+		};
 		
-	}
-	
-	private Set<Path> conflictingFiles(final List<Mod> conflictingMods) {
+		task.setOnFailed(new EventHandler<WorkerStateEvent>() {
+			@Override
+			public void handle(final WorkerStateEvent t) {
+				log.error("Error occurred while refreshing mods!", task.getException());
+				MessageDialogue dialogue = new MessageDialogue(localizer.getMessage("modlist.addmoderror"), localizer.getMessage("modlist.addmoderror.title"), MessageType.ERROR, new LocalizerFactory());
+				dialogue.getResult();
+			}
+		});
 		
-		Map<Path, Integer> fileCounts = new HashMap<>();
-
-		//First, count all instances of modified files.
-		for (Mod m : conflictingMods) {
-			for (ModFile modFile : m.getFiles()) {
+		task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+			@Override
+			public void handle(final WorkerStateEvent t) {
+				
+				boolean reinstall = false;
+				
+				for (Map.Entry<Mod, Mod> entry : changedMods.entrySet()) {
+					
+					Mod oldMod = entry.getKey();
+					Mod newMod = entry.getValue();
+					
+					//A mod whose archive was deleted has already been removed from the database
+					if (newMod == null) {
+						reinstall |= oldMod.isInstalled();
+						removeMod(oldMod);
+					} else {
+						newMod.setOrder(oldMod.getOrder());
+						mods.set(mods.indexOf(oldMod), newMod);
+						pathIndex.remove(oldMod);
+						pathIndex.add(newMod);
+						reinstall |= newMod.isInstalled();
+					}
+					
+					notifyObservers(new Object[] { "moddeleted", oldMod });
+					
+					if (newMod != null) {
+						notifyObservers(new Object[] { "modadded", newMod });
+					}
+					
+				}
 				
-				if (modFile.isAutoMerged() || modFile.isIgnored() || modFile.isModinfo()) {
-					continue;
+				if (reinstall) {
+					TaskScheduler.execute(Lane.INSTALL, "Reinstall Changed Mods", getInstallerTask(getInstalledMods()));
 				}
 				
-				if (fileCounts.containsKey(modFile.getPath())) {
-					fileCounts.put(modFile.getPath(), fileCounts.get(modFile.getPath()) + 1);
-				} else {
-					fileCounts.put(modFile.getPath(), 1);
+				if (!newFiles.isEmpty()) {
+					addMods(newFiles);
 				}
 				
 			}
+		});
+		
+		TaskScheduler.execute(Lane.IO, "Refresh Mods", task);
+		
+	}
+	
+	private void installedFoldersChanged(final Set<String> folders) {
+		
+		List<Mod> changedMods = new ArrayList<>();
+		
+		for (Mod mod : getInstalledMods()) {
+			if (folders.contains(mod.getInternalName())) {
+				log.warn("Installed mod changed outside of the mod manager: {}", mod.getInternalName());
+				changedMods.add(mod);
+			}
+		}
+		
+		if (!changedMods.isEmpty()) {
+			notifyObservers(new Object[] { "modschanged", changedMods });
 		}
 		
-		Set<Path> modifiedFiles = new HashSet<>();
+	}
+	
+	@Override
+	public List<Mod> getInstalledMods() {
+		
+		List<Mod> installedMods = new ArrayList<>();
 		
-		//All files with an instance count > 1 have conflicts
-		for (Path p : fileCounts.keySet()) {
-			if (fileCounts.get(p) > 1) {
-				modifiedFiles.add(p);
-				log.debug("Modified File: {}", p);
+		for (Mod m : mods) {
+			if (m.isInstalled()) {
+				installedMods.add(m);
 			}
 		}
 		
-		return modifiedFiles;
+		return installedMods;
 		
 	}
-
+	
+	private List<Mod> getConflictingMods(final List<Mod> modList) {
+		return pathIndex.getConflictingMods(modList);
+	}
+	
 	@Override
 	public void addObserver(final Observer observer) {
 		observers.add(observer);
@@ -9,6 +9,7 @@ public interface ModListModelInterface extends Observable {
 	
 	public Task<Void> getLoadTask();
 	public Task<Void> getNewModsTask();
+	public Task<Void> getSaveSnapshotTask();
 	
 	public void addMods(final List<Path> files);
 	
@@ -17,6 +18,7 @@ public interface ModListModelInterface extends Observable {
 	public void uninstallMod(final Mod mod);
 	public void hideMod(final Mod mod);
 	public void moveMod(final Mod mod, final int amount);
+	public void saveModOrder();
 	public void reinstallConflictingMods(final List<Mod> oldOrder);
 	
 	public List<Mod> getMods();
@@ -28,4 +30,7 @@ public interface ModListModelInterface extends Observable {
 	
 	public void setModList(final List<Mod> list) ;
 	
+	public void startWatching();
+	public void stopWatching();
+	
 }
\ No newline at end of file
@@ -0,0 +1,269 @@
+package net.krazyweb.starmodmanager.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.krazyweb.helpers.FileFingerprint;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * A compact binary copy of the mod list, written when the application closes
+ * so the next launch can skip reading every mod from the database. Each
+ * snapshot has an id which is stored in the settings once the snapshot has
+ * been written, and cleared as soon as it has been read. A snapshot is only
+ * trusted if its id matches, so a crash (or any change made after the
+ * snapshot was read) falls back to the database.
+ */
+class ModListSnapshot {
+	
+	private static final Logger log = LogManager.getLogger(ModListSnapshot.class);
+	
+	protected static final String SETTING = "modlistsnapshot";
+	
+	private static final Path DEFAULT_PATH = Paths.get("data", "modlist.snapshot");
+	
+	private static final int MAGIC = 0x534D4C53; //"SMLS"
+	private static final int VERSION = 1;
+	
+	private static final int FILE_JSON = 1;
+	private static final int FILE_IGNORED = 2;
+	private static final int FILE_AUTO_MERGED = 4;
+	
+	protected static String write(final Collection<Mod> mods) throws IOException {
+		return write(DEFAULT_PATH, mods);
+	}
+	
+	protected static String write(final Path path, final Collection<Mod> mods) throws IOException {
+		
+		String id = Long.toHexString(System.currentTimeMillis()) + Long.toHexString(System.nanoTime());
+		
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, id);
+			out.writeInt(mods.size());
+			
+			for (Mod mod : mods) {
+				
+				writeString(out, mod.getInternalName());
+				writeString(out, mod.getArchiveName());
+				writeString(out, mod.getDisplayName());
+				writeString(out, mod.getModVersion());
+				writeString(out, mod.getGameVersion());
+				writeString(out, mod.getAuthor());
+				writeString(out, mod.getDescription());
+				writeString(out, mod.getURL());
+				out.writeLong(mod.getChecksum());
+				writeString(out, mod.getFingerprint() == null ? null : mod.getFingerprint().toString());
+				out.writeInt(mod.getOrder());
+				out.writeBoolean(mod.isHidden());
+				out.writeBoolean(mod.isInstalled());
+				
+				out.writeInt(mod.getDependencies().size());
+				
+				for (String dependency : mod.getDependencies()) {
+					writeString(out, dependency);
+				}
+				
+				out.writeInt(mod.getFiles().size());
+				
+				for (ModFile file : mod.getFiles()) {
+					
+					int flags = 0;
+					
+					if (file.isJson()) {
+						flags |= FILE_JSON;
+					}
+					
+					if (file.isIgnored()) {
+						flags |= FILE_IGNORED;
+					}
+					
+					if (file.isAutoMerged()) {
+						flags |= FILE_AUTO_MERGED;
+					}
+					
+					writeString(out, file.getPath().toString());
+					out.writeByte(flags);
+					writeString(out, file.getHash());
+					
+				}
+				
+			}
+			
+		}
+		
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		return id;
+		
+	}
+	
+	/*
+	 * Returns the mods in the snapshot by internal name, or an empty map if
+	 * there is no snapshot with the given id. The mods still have to be
+	 * verified against their archives before they are used.
+	 */
+	protected static Map<String, Mod> read(final String id) {
+		return read(DEFAULT_PATH, id);
+	}
+	
+	protected static Map<String, Mod> read(final Path path, final String id) {
+		
+		Map<String, Mod> mods = new HashMap<>();
+		
+		if (id == null || id.isEmpty() || Files.notExists(path)) {
+			return mods;
+		}
+		
+		/*
+		 * The file is read into memory with a single read rather than mapped,
+		 * since a mapped file can't be replaced on Windows until the mapping
+		 * is garbage collected, and the snapshot is rewritten on exit.
+		 */
+		ByteBuffer buffer;
+		
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			
+			buffer = ByteBuffer.allocate((int) channel.size());
+			
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				//Keep reading until the buffer is full
+			}
+			
+			buffer.flip();
+			
+		} catch (final IOException e) {
+			log.error("", e);
+			return mods;
+		}
+		
+		try {
+			
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !id.equals(readString(buffer))) {
+				log.debug("Mod list snapshot is out of date, ignoring it");
+				return mods;
+			}
+			
+			int count = buffer.getInt();
+			
+			for (int i = 0; i < count; i++) {
+				
+				Mod mod = new Mod(new LocalizerFactory(), new SettingsFactory());
+				
+				mod.setInternalName(readString(buffer));
+				mod.setArchiveName(readString(buffer));
+				mod.setDisplayName(readString(buffer));
+				mod.setModVersion(readString(buffer));
+				mod.setGameVersion(readString(buffer));
+				mod.setAuthor(readString(buffer));
+				mod.setDescription(readString(buffer));
+				mod.setURL(readString(buffer));
+				mod.setChecksum(buffer.getLong());
+				mod.setFingerprint(FileFingerprint.fromString(readString(buffer)));
+				mod.setOrder(buffer.getInt());
+				mod.setHidden(buffer.get() != 0);
+				mod.setInstalled(buffer.get() != 0);
+				
+				int dependencyCount = buffer.getInt();
+				Set<String> dependencies = new HashSet<>();
+				
+				for (int j = 0; j < dependencyCount; j++) {
+					dependencies.add(readString(buffer));
+				}
+				
+				mod.setDependencies(dependencies);
+				
+				int fileCount = buffer.getInt();
+				Set<ModFile> files = new HashSet<>();
+				
+				for (int j = 0; j < fileCount; j++) {
+					
+					ModFile file = new ModFile();
+					
+					file.setPath(Paths.get(readString(buffer)));
+					
+					int flags = buffer.get();
+					
+					file.setJson((flags & FILE_JSON) != 0);
+					file.setIgnored((flags & FILE_IGNORED) != 0);
+					file.setAutoMerged((flags & FILE_AUTO_MERGED) != 0);
+					file.setHash(readString(buffer));
+					
+					files.add(file);
+					
+				}
+				
+				mod.setFiles(files);
+				
+				mods.put(mod.getInternalName(), mod);
+				
+			}
+			
+		} catch (final BufferUnderflowException | IllegalArgumentException e) {
+			log.error("Mod list snapshot is corrupt, ignoring it", e);
+			mods.clear();
+		}
+		
+		return mods;
+		
+	}
+	
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		
+	}
+	
+	private static String readString(final ByteBuffer buffer) {
+		
+		int length = buffer.getInt();
+		
+		if (length < 0) {
+			return null;
+		}
+		
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		
+		return new String(bytes, StandardCharsets.UTF_8);
+		
+	}
+	
+}
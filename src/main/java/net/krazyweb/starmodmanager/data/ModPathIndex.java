@@ -0,0 +1,243 @@
+package net.krazyweb.starmodmanager.data;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.krazyweb.starmodmanager.data.Mod.ModOrderComparator;
+
+/*
+ * Maps every asset path to the mods that replace it, ignoring auto-merged
+ * and ignored files (which never conflict). Paths touched by more than one
+ * mod are kept in a separate set, so finding conflicts only has to look at
+ * the contested paths instead of comparing every pair of mods.
+ * 
+ * The hash of each mod's version of a path is kept too: mods that ship
+ * byte-identical copies of a file don't conflict over it.
+ * 
+ * The index is kept up to date by ModList as mods are added and removed.
+ */
+class ModPathIndex {
+	
+	private Map<Path, Map<Mod, String>> modsByPath = new HashMap<>();
+	private Map<Mod, Set<Path>> pathsByMod = new HashMap<>();
+	
+	private Set<Path> contestedPaths = new HashSet<>();
+	
+	protected synchronized void add(final Mod mod) {
+		
+		if (pathsByMod.containsKey(mod)) {
+			return;
+		}
+		
+		Set<Path> paths = new HashSet<>();
+		
+		for (ModFile file : mod.getFiles()) {
+			
+			if (file.isAutoMerged() || file.isIgnored()) {
+				continue;
+			}
+			
+			paths.add(file.getPath());
+			
+			Map<Mod, String> mods = modsByPath.get(file.getPath());
+			
+			if (mods == null) {
+				mods = new HashMap<>();
+				modsByPath.put(file.getPath(), mods);
+			}
+			
+			mods.put(mod, file.getHash());
+			
+			if (mods.size() > 1) {
+				contestedPaths.add(file.getPath());
+			}
+			
+		}
+		
+		pathsByMod.put(mod, paths);
+		
+	}
+	
+	protected synchronized void remove(final Mod mod) {
+		
+		Set<Path> paths = pathsByMod.remove(mod);
+		
+		if (paths == null) {
+			return;
+		}
+		
+		for (Path path : paths) {
+			
+			Map<Mod, String> mods = modsByPath.get(path);
+			mods.remove(mod);
+			
+			if (mods.isEmpty()) {
+				modsByPath.remove(path);
+			}
+			
+			if (mods.size() < 2) {
+				contestedPaths.remove(path);
+			}
+			
+		}
+		
+	}
+	
+	protected synchronized void rebuild(final Collection<Mod> mods) {
+		
+		modsByPath.clear();
+		pathsByMod.clear();
+		contestedPaths.clear();
+		
+		for (Mod mod : mods) {
+			add(mod);
+		}
+		
+	}
+	
+	protected synchronized Set<Mod> getMods() {
+		return new HashSet<>(pathsByMod.keySet());
+	}
+	
+	protected synchronized Set<Mod> getModsWithPath(final Path path) {
+		
+		Map<Mod, String> mods = modsByPath.get(path);
+		
+		if (mods == null) {
+			return new HashSet<>();
+		}
+		
+		return new HashSet<>(mods.keySet());
+		
+	}
+	
+	/*
+	 * Returns the hash of the mod's version of the path, or null if the
+	 * mod doesn't replace the path or the hash isn't known.
+	 */
+	protected synchronized String getHash(final Path path, final Mod mod) {
+		
+		Map<Mod, String> mods = modsByPath.get(path);
+		
+		if (mods == null) {
+			return null;
+		}
+		
+		return mods.get(mod);
+		
+	}
+	
+	/*
+	 * Returns the mods in the given list that replace at least one path with
+	 * different contents than another mod in the list, sorted by load order.
+	 */
+	protected synchronized List<Mod> getConflictingMods(final Collection<Mod> modList) {
+		
+		Set<Mod> candidates = getCandidates(modList);
+		Set<Mod> conflictingMods = new HashSet<>();
+		
+		for (Path path : contestedPaths) {
+			
+			List<Mod> mods = getModsIn(path, candidates);
+			
+			if (conflicts(path, mods)) {
+				conflictingMods.addAll(mods);
+			}
+			
+		}
+		
+		List<Mod> output = new ArrayList<>(conflictingMods);
+		
+		Collections.sort(output, new ModOrderComparator());
+		
+		return output;
+		
+	}
+	
+	/*
+	 * Returns the paths (other than modinfo files) replaced with different
+	 * contents by more than one of the given mods.
+	 */
+	protected synchronized Set<Path> getConflictingFiles(final Collection<Mod> modList) {
+		
+		Set<Mod> candidates = getCandidates(modList);
+		Set<Path> conflictingFiles = new HashSet<>();
+		
+		for (Path path : contestedPaths) {
+			
+			if (path.toString().endsWith(".modinfo")) {
+				continue;
+			}
+			
+			if (conflicts(path, getModsIn(path, candidates))) {
+				conflictingFiles.add(path);
+			}
+			
+		}
+		
+		return conflictingFiles;
+		
+	}
+	
+	/*
+	 * Mods that aren't in the index are left out rather than added, since
+	 * only ModList changes what the index holds.
+	 */
+	private Set<Mod> getCandidates(final Collection<Mod> modList) {
+		
+		Set<Mod> candidates = new HashSet<>(modList);
+		candidates.retainAll(pathsByMod.keySet());
+		
+		return candidates;
+		
+	}
+	
+	/*
+	 * Files without a known hash (e.g. from mods added before hashes were
+	 * stored) are always treated as different.
+	 */
+	private boolean conflicts(final Path path, final List<Mod> mods) {
+		
+		if (mods.size() < 2) {
+			return false;
+		}
+		
+		Map<Mod, String> hashes = modsByPath.get(path);
+		String first = hashes.get(mods.get(0));
+		
+		if (first == null) {
+			return true;
+		}
+		
+		for (Mod mod : mods) {
+			if (!first.equals(hashes.get(mod))) {
+				return true;
+			}
+		}
+		
+		return false;
+		
+	}
+	
+	private List<Mod> getModsIn(final Path path, final Set<Mod> candidates) {
+		
+		List<Mod> mods = new ArrayList<>();
+		
+		for (Mod mod : modsByPath.get(path).keySet()) {
+			if (candidates.contains(mod)) {
+				mods.add(mod);
+			}
+		}
+		
+		return mods;
+		
+	}
+	
+}
@@ -0,0 +1,129 @@
+package net.krazyweb.starmodmanager.data;
+
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.krazyweb.helpers.FileFingerprint;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+/*
+ * Converts mods to and from JSON, storing the same fields as the columns
+ * of the HyperSQL mods and mod_files tables.
+ */
+class ModSerializer {
+	
+	protected static JsonObject toJson(final Mod mod) {
+		
+		JsonObject json = new JsonObject();
+		
+		json.add("internalName", mod.getInternalName());
+		json.add("archiveName", mod.getArchiveName());
+		json.add("displayName", mod.getDisplayName());
+		json.add("modVersion", mod.getModVersion());
+		json.add("gameVersion", mod.getGameVersion());
+		json.add("author", mod.getAuthor());
+		json.add("description", mod.getDescription());
+		json.add("url", mod.getURL());
+		json.add("checksum", mod.getChecksum());
+		json.add("fingerprint", mod.getFingerprint() == null ? null : mod.getFingerprint().toString());
+		json.add("loadOrder", mod.getOrder());
+		json.add("hidden", mod.isHidden());
+		json.add("installed", mod.isInstalled());
+		
+		JsonArray dependencies = new JsonArray();
+		
+		for (String dependency : mod.getDependencies()) {
+			dependencies.add(dependency);
+		}
+		
+		json.add("dependencies", dependencies);
+		
+		JsonArray files = new JsonArray();
+		
+		for (ModFile file : mod.getFiles()) {
+			
+			JsonObject fileJson = new JsonObject();
+			
+			fileJson.add("path", file.getPath().toString());
+			fileJson.add("json", file.isJson());
+			fileJson.add("ignored", file.isIgnored());
+			fileJson.add("autoMerged", file.isAutoMerged());
+			fileJson.add("hash", file.getHash());
+			
+			files.add(fileJson);
+			
+		}
+		
+		json.add("files", files);
+		
+		return json;
+		
+	}
+	
+	protected static Mod fromJson(final JsonObject json) {
+		
+		Mod mod = new Mod(new LocalizerFactory(), new SettingsFactory());
+		
+		mod.setInternalName(getString(json, "internalName"));
+		mod.setArchiveName(getString(json, "archiveName"));
+		mod.setDisplayName(getString(json, "displayName"));
+		mod.setModVersion(getString(json, "modVersion"));
+		mod.setGameVersion(getString(json, "gameVersion"));
+		mod.setAuthor(getString(json, "author"));
+		mod.setDescription(getString(json, "description"));
+		mod.setURL(getString(json, "url"));
+		mod.setChecksum(json.get("checksum").asLong());
+		mod.setFingerprint(FileFingerprint.fromString(getString(json, "fingerprint")));
+		mod.setOrder(json.get("loadOrder").asInt());
+		mod.setHidden(json.get("hidden").asBoolean());
+		mod.setInstalled(json.get("installed").asBoolean());
+		
+		Set<String> dependencies = new HashSet<>();
+		
+		for (JsonValue dependency : json.get("dependencies").asArray()) {
+			dependencies.add(dependency.asString());
+		}
+		
+		mod.setDependencies(dependencies);
+		
+		Set<ModFile> files = new HashSet<>();
+		
+		for (JsonValue value : json.get("files").asArray()) {
+			
+			JsonObject fileJson = value.asObject();
+			
+			ModFile file = new ModFile();
+			
+			file.setPath(Paths.get(fileJson.get("path").asString()));
+			file.setJson(fileJson.get("json").asBoolean());
+			file.setIgnored(fileJson.get("ignored").asBoolean());
+			file.setAutoMerged(fileJson.get("autoMerged").asBoolean());
+			file.setHash(getString(fileJson, "hash"));
+			
+			files.add(file);
+			
+		}
+		
+		mod.setFiles(files);
+		
+		return mod;
+		
+	}
+	
+	private static String getString(final JsonObject json, final String name) {
+		
+		JsonValue value = json.get(name);
+		
+		if (value == null || value.isNull()) {
+			return null;
+		}
+		
+		return value.asString();
+		
+	}
+	
+}
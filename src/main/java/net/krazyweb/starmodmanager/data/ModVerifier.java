@@ -0,0 +1,78 @@
+package net.krazyweb.starmodmanager.data;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Set;
+
+import net.krazyweb.helpers.FileFingerprint;
+import net.krazyweb.helpers.FileHelper;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Checks a mod read from a database against its archive, shared by every
+ * database backend. Mods whose archive is gone are deleted, and mods whose
+ * archive has changed are reloaded from it.
+ */
+class ModVerifier {
+	
+	private static final Logger log = LogManager.getLogger(ModVerifier.class);
+	
+	/*
+	 * Nothing here holds a lock on the database, so several mods can be
+	 * verified at the same time.
+	 */
+	protected static Mod verify(final Mod mod, final DatabaseModelInterface database, final SettingsModelInterface settings) throws SQLException, IOException {
+		
+		Path archivePath = settings.getPropertyPath("modsdir").resolve(mod.getArchiveName());
+		
+		if (Files.notExists(archivePath)) {
+			database.deleteMod(mod);
+			return null;
+		}
+		
+		/*
+		 * Hashing every archive on every launch is slow, so the archive is only
+		 * hashed when its size, modified time or file key have changed since
+		 * the checksum was stored. Paranoid mode always hashes.
+		 */
+		FileFingerprint fingerprint = FileFingerprint.of(archivePath);
+		
+		if (!settings.getPropertyBoolean("paranoidchecksums") && fingerprint.equals(mod.getFingerprint())) {
+			log.debug("Mod file unchanged, skipping checksum: {}", mod.getArchiveName());
+			return mod;
+		}
+		
+		long checksum = FileHelper.getChecksum(archivePath);
+		
+		if (mod.getChecksum() != checksum) {
+			
+			log.debug("Mod file checksum mismatch: {} ({})", mod.getArchiveName(), mod.getChecksum());
+			
+			Set<Mod> mods = Mod.load(archivePath, mod.getOrder(), new SettingsFactory(), new DatabaseFactory(), new LocalizerFactory());
+			
+			for (Mod reloaded : mods) {
+				if (reloaded.getInternalName().equals(mod.getInternalName())) {
+					reloaded.setHidden(mod.isHidden());
+					reloaded.setInstalled(mod.isInstalled());
+					database.updateMod(reloaded);
+					return reloaded;
+				}
+			}
+			
+		} else if (!fingerprint.equals(mod.getFingerprint())) {
+			
+			//The contents are the same (e.g. the file was touched or copied), so store the new fingerprint
+			mod.setFingerprint(fingerprint);
+			database.updateMod(mod);
+			
+		}
+		
+		return mod;
+		
+	}
+	
+}
@@ -4,13 +4,19 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javafx.concurrent.Task;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
+import net.krazyweb.helpers.Archive;
+import net.krazyweb.helpers.TaskScheduler;
+import net.krazyweb.helpers.TaskScheduler.Lane;
+import net.krazyweb.helpers.TaskScheduler.Priority;
 import net.krazyweb.starmodmanager.dialogue.MessageDialogue;
 import net.krazyweb.starmodmanager.dialogue.MessageDialogue.MessageType;
 
@@ -40,6 +46,16 @@ public class Settings implements SettingsModelInterface {
 	private Map<String, String> settings;
 	private Properties defaultProperties;
 	
+	/*
+	 * The settings map above is authoritative; changes are written to the
+	 * database in the background so that setting a property never waits on
+	 * the disk. A property changed several times before the writer gets to
+	 * it is only written once, with its latest value.
+	 */
+	private final Map<String, Object> pendingWrites = new LinkedHashMap<>();
+	private final Object writeLock = new Object();
+	private boolean writeScheduled;
+	
 	private Set<Observer> observers;
 
 	private DatabaseModelInterface database;
@@ -121,7 +137,7 @@ public class Settings implements SettingsModelInterface {
 				this.updateMessage("Loading Settings From Database");
 				this.updateProgress(0.0, 3.0);
 
-				settings = database.getProperties();
+				settings = new ConcurrentHashMap<>(database.getProperties());
 
 				this.updateProgress(1.0, 3.0);
 				
@@ -135,6 +151,8 @@ public class Settings implements SettingsModelInterface {
 					setLoggerLevel(getPropertyLevel("loggerlevel"), LoggerType.FILE);
 				}
 				
+				Archive.setDefaultMemoryBudget(getPropertyInt("archivememorybudget") * 1024L * 1024L);
+				
 				if (Files.notExists(getPropertyPath("modsdir"))) {
 					Files.createDirectories(getPropertyPath("modsdir"));
 				}
@@ -271,10 +289,61 @@ public class Settings implements SettingsModelInterface {
 
 	@Override
 	public void setProperty(final String key, final Object property) {
+		
 		settings.put(key, property.toString());
 		notifyObservers("propertychanged:" + key);
-		database.setProperty(key, property);
+		
+		synchronized (pendingWrites) {
+			
+			pendingWrites.put(key, property);
+			
+			if (!writeScheduled) {
+				
+				writeScheduled = true;
+				
+				TaskScheduler.execute(Lane.DATABASE, Priority.LOW, "Write Settings", new Runnable() {
+					@Override
+					public void run() {
+						flush();
+					}
+				});
+				
+			}
+			
+		}
+		
 		log.debug("Property Changed: {} -> {}", key, property);
+		
+	}
+	
+	/*
+	 * Writes every pending change to the database before returning. Holding
+	 * the write lock means a flush started by the background writer is
+	 * finished first.
+	 */
+	@Override
+	public void flush() {
+		
+		synchronized (writeLock) {
+			
+			Map<String, Object> writes;
+			
+			synchronized (pendingWrites) {
+				writes = new LinkedHashMap<>(pendingWrites);
+				pendingWrites.clear();
+				writeScheduled = false;
+			}
+			
+			for (Map.Entry<String, Object> write : writes.entrySet()) {
+				database.setProperty(write.getKey(), write.getValue());
+			}
+			
+			if (!writes.isEmpty()) {
+				log.trace("{} properties written to the database.", writes.size());
+			}
+			
+		}
+		
 	}
 
 	@Override
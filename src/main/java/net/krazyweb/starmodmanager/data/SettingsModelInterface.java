@@ -28,6 +28,7 @@ public interface SettingsModelInterface extends Observable {
 	public Level getPropertyLevel(final String key);
 	
 	public void setProperty(final String key, final Object property);
+	public void flush();
 	public void setLoggerLevel(final Level level);
 	
 }
@@ -2,10 +2,22 @@ package net.krazyweb.starmodmanager.view;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
 
-import javafx.beans.property.ReadOnlyDoubleProperty;
-import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.EventHandler;
+import net.krazyweb.helpers.TaskScheduler;
+import net.krazyweb.helpers.TaskScheduler.Lane;
+import net.krazyweb.helpers.TaskScheduler.Priority;
 import net.krazyweb.starmodmanager.data.DatabaseFactory;
 import net.krazyweb.starmodmanager.data.DatabaseModelInterface;
 import net.krazyweb.starmodmanager.data.LocalizerFactory;
@@ -25,10 +37,37 @@ import org.apache.logging.log4j.Logger;
 
 public class ApplicationLoader implements Observer {
 	
-	@SuppressWarnings("unused")
 	private static final Logger log = LogManager.getLogger(ApplicationLoader.class);
 	
-	private static final double STEP_MULTIPLIER = 1.0 / 5.0;
+	/*
+	 * Startup is a graph of stages: each stage is scheduled as soon as all
+	 * of the stages it depends on have finished, so independent stages run
+	 * at the same time. A stage is finished when its model sends the given
+	 * message, or when its task ends if it has none. The main window opens
+	 * once every required stage has finished.
+	 */
+	private static enum Stage {
+		
+		LOGGER(Lane.IO, "loggerconfigured", true),
+		DATABASE(Lane.DATABASE, "databaseinitialized", true),
+		SETTINGS(Lane.DATABASE, "settingsloaded", true, LOGGER, DATABASE), //Applies the saved logger level, so it must run after the logger is configured
+		LOCALIZER(Lane.IO, "localizerloaded", true, SETTINGS),
+		MOD_LIST(Lane.IO, "modlistupdated", true, SETTINGS, LOCALIZER),
+		ASSET_CACHE(Lane.IO, null, false, SETTINGS);
+		
+		private final Lane lane;
+		private final String message;
+		private final boolean required;
+		private final Stage[] dependencies;
+		
+		private Stage(final Lane lane, final String message, final boolean required, final Stage... dependencies) {
+			this.lane = lane;
+			this.message = message;
+			this.required = required;
+			this.dependencies = dependencies;
+		}
+		
+	}
 	
 	private LoaderView view;
 	private ModList modList;
@@ -37,89 +76,166 @@ public class ApplicationLoader implements Observer {
 	private DatabaseModelInterface database;
 	private LocalizerModelInterface localizer;
 	
+	private Set<Stage> started = EnumSet.noneOf(Stage.class);
+	private Set<Stage> finished = EnumSet.noneOf(Stage.class);
+	private Map<Stage, Double> stageProgress = new EnumMap<>(Stage.class);
+	private Map<Stage, Long> startTimes = new EnumMap<>(Stage.class);
+	private DoubleProperty progress = new SimpleDoubleProperty();
+	private long startTime;
+	private int requiredStages;
+	
 	public ApplicationLoader() {
 		
+		startTime = System.nanoTime();
+		
 		view = new LoaderView();
 		view.build();
+		view.getProgressBar().bind(progress, 1.0);
 		
 		settings = new SettingsFactory().getInstance();
 		settings.addObserver(this);
 		
-		configureLogger();
+		database = new DatabaseFactory().getInstance();
+		database.addObserver(this);
 		
-	}
-	
-	private void configureLogger() {
+		localizer = new LocalizerFactory().getInstance();
+		localizer.addObserver(this);
 		
-		Task<Void> task = settings.getInitializeLoggerTask();
+		modList = new ModList(new SettingsFactory(), new DatabaseFactory(), new LocalizerFactory());
+		modList.addObserver(this);
 		
-		setProgressProperties(task.progressProperty(), task.messageProperty(), 1);
+		for (Stage stage : Stage.values()) {
+			if (stage.required) {
+				requiredStages++;
+			}
+		}
 		
-		Thread thread = new Thread(task);
-		thread.setDaemon(true);
-		thread.setName("Settings Initialization Thread");
-		thread.start();
+		startReadyStages();
 		
 	}
 	
-	private void initDatabase() {
-		
-		database = new DatabaseFactory().getInstance();
-		database.addObserver(this);
-		
-		Task<Void> task = database.getInitializerTask();
+	private Task<Void> getTask(final Stage stage) {
+		
+		switch (stage) {
+			case LOGGER:
+				return settings.getInitializeLoggerTask();
+			case DATABASE:
+				return database.getInitializerTask();
+			case SETTINGS:
+				return settings.getLoadSettingsTask();
+			case LOCALIZER:
+				return localizer.getInitializerTask();
+			case MOD_LIST:
+				return modList.getLoadTask();
+			case ASSET_CACHE:
+				return modList.getWarmUpTask();
+			default:
+				throw new IllegalArgumentException(stage.toString());
+		}
 		
-		setProgressProperties(task.progressProperty(), task.messageProperty(), 2);
+	}
+	
+	private void startReadyStages() {
 		
-		Thread thread = new Thread(task);
-		thread.setDaemon(true);
-		thread.setName("Database Initialization Thread");
-		thread.start();
+		for (Stage stage : Stage.values()) {
+			
+			if (started.contains(stage) || !finished.containsAll(Arrays.asList(stage.dependencies))) {
+				continue;
+			}
+			
+			started.add(stage);
+			startStage(stage);
+			
+		}
 		
 	}
 	
-	private void loadSettings() {
+	private void startStage(final Stage stage) {
+		
+		Task<Void> task = getTask(stage);
+		
+		if (stage.required) {
+			task.progressProperty().addListener(new ChangeListener<Number>() {
+				@Override
+				public void changed(final ObservableValue<? extends Number> observableValue, final Number oldValue, final Number newValue) {
+					if (!finished.contains(stage)) {
+						setStageProgress(stage, newValue.doubleValue());
+					}
+				}
+			});
+		}
 		
-		Task<Void> task = settings.getLoadSettingsTask();
+		if (stage.message == null) {
+			
+			EventHandler<WorkerStateEvent> handler = new EventHandler<WorkerStateEvent>() {
+				@Override
+				public void handle(final WorkerStateEvent event) {
+					
+					if (event.getEventType() == WorkerStateEvent.WORKER_STATE_FAILED) {
+						log.warn("Startup stage {} failed.", stage, event.getSource().getException());
+					}
+					
+					stageFinished(stage);
+					
+				}
+			};
+			
+			task.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, handler);
+			task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, handler);
+			
+		}
 		
-		setProgressProperties(task.progressProperty(), task.messageProperty(), 3);
+		startTimes.put(stage, System.nanoTime());
 		
-		Thread thread = new Thread(task);
-		thread.setDaemon(true);
-		thread.setName("Settings Loading Thread");
-		thread.start();
+		//Stages the main window doesn't wait for shouldn't hold up the ones it does
+		TaskScheduler.execute(stage.lane, stage.required ? Priority.HIGH : Priority.LOW, "Startup: " + stage, task);
 		
 	}
 	
-	private void initializeLocalizer() {
+	private void stageFinished(final Stage stage) {
 		
-		localizer = new LocalizerFactory().getInstance();
-		localizer.addObserver(this);
+		if (!finished.add(stage)) {
+			return;
+		}
 		
-		Task<Void> task = localizer.getInitializerTask();
+		log.info("Startup stage {} finished in {}ms ({}ms since launch).", stage, (System.nanoTime() - startTimes.get(stage)) / 1000000, (System.nanoTime() - startTime) / 1000000);
 		
-		setProgressProperties(task.progressProperty(), task.messageProperty(), 4);
+		if (stage.required) {
+			
+			setStageProgress(stage, 1.0);
+			
+			int finishedRequired = 0;
+			
+			for (Stage s : finished) {
+				if (s.required) {
+					finishedRequired++;
+				}
+			}
+			
+			if (finishedRequired == requiredStages) {
+				log.info("Startup finished in {}ms.", (System.nanoTime() - startTime) / 1000000);
+				completeLoading();
+				return;
+			}
+			
+		}
 		
-		Thread thread = new Thread(task);
-		thread.setDaemon(true);
-		thread.setName("Localizer Initialization Thread");
-		thread.start();
+		startReadyStages();
 		
 	}
 	
-	private void loadModList() {
+	//Every required stage counts for an equal share of the progress bar
+	private void setStageProgress(final Stage stage, final double stageValue) {
 		
-		modList = new ModList(new SettingsFactory(), new DatabaseFactory(), new LocalizerFactory());
-		modList.addObserver(this);
+		stageProgress.put(stage, Math.max(0.0, stageValue));
 		
-		Task<Void> task = modList.getLoadTask();
+		double total = 0.0;
 		
-		setProgressProperties(task.progressProperty(), task.messageProperty(), 5);
+		for (double value : stageProgress.values()) {
+			total += value;
+		}
 		
-		Thread thread = new Thread(task);
-		thread.setDaemon(true);
-		thread.setName("Mod List Loading Thread");
-		thread.start();
+		progress.set(total / requiredStages);
 		
 	}
 	
@@ -173,31 +289,14 @@ public class ApplicationLoader implements Observer {
 			
 			String message = (String) data;
 			
-			switch (message) {
-				case "loggerconfigured":
-					initDatabase();
-					break;
-				case "databaseinitialized":
-					loadSettings();
-					break;
-				case "settingsloaded":
-					initializeLocalizer();
-					break;
-				case "localizerloaded":
-					loadModList();
-					break;
-				case "modlistupdated":
-					completeLoading();
-					break;
+			for (Stage stage : Stage.values()) {
+				if (message.equals(stage.message)) {
+					stageFinished(stage);
+				}
 			}
 			
 		}
 		
 	}
 	
-	private void setProgressProperties(final ReadOnlyDoubleProperty progress, final ReadOnlyStringProperty message, final int step) {
-		view.getProgressBar().bind(progress.multiply(STEP_MULTIPLIER).add((double) (step - 1) * STEP_MULTIPLIER), 1.0);
-		view.getText().setText("Loading");
-	}
-	
 }
\ No newline at end of file
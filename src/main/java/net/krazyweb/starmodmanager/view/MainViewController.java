@@ -13,6 +13,9 @@ import javafx.scene.input.Dragboard;
 import javafx.scene.input.TransferMode;
 import javafx.stage.WindowEvent;
 import net.krazyweb.helpers.FileHelper;
+import net.krazyweb.helpers.TaskScheduler;
+import net.krazyweb.helpers.TaskScheduler.Lane;
+import net.krazyweb.helpers.TaskScheduler.Priority;
 import net.krazyweb.starmodmanager.data.DatabaseFactory;
 import net.krazyweb.starmodmanager.data.DatabaseModelInterface;
 import net.krazyweb.starmodmanager.data.LocalizerFactory;
@@ -64,6 +67,7 @@ public class MainViewController extends Observable {
 		view.show();
 		
 		this.modList = modList;
+		this.modList.startWatching();
 		
 	}
 	
@@ -171,11 +175,16 @@ public class MainViewController extends Observable {
 		settings.setProperty("windowwidth", view.getScene().getWidth());
 		settings.setProperty("windowheight", view.getScene().getHeight());
 		
+		modList.stopWatching();
+		
+		/*
+		 * The snapshot is written on the database lane so that the setting
+		 * holding its id is saved before the database closes.
+		 */
+		TaskScheduler.execute(Lane.DATABASE, Priority.HIGH, "Save Mod List Snapshot", modList.getSaveSnapshotTask());
+		
 		Task<Void> task = database.getCloseTask();
-		Thread thread = new Thread(task);
-		thread.setDaemon(true);
-		thread.setName("Database Closing Thread");
-		thread.start();
+		TaskScheduler.execute(Lane.DATABASE, Priority.HIGH, "Close Database", task);
 		
 	}
 	
@@ -13,14 +13,19 @@ import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
+import net.krazyweb.helpers.TaskScheduler;
+import net.krazyweb.helpers.TaskScheduler.Lane;
 import net.krazyweb.starmodmanager.ModManager;
 import net.krazyweb.starmodmanager.data.LocalizerFactory;
+import net.krazyweb.starmodmanager.data.LocalizerModelInterface;
 import net.krazyweb.starmodmanager.data.Mod;
 import net.krazyweb.starmodmanager.data.ModList;
 import net.krazyweb.starmodmanager.data.Observable;
 import net.krazyweb.starmodmanager.data.Observer;
 import net.krazyweb.starmodmanager.data.SettingsFactory;
 import net.krazyweb.starmodmanager.data.SettingsModelInterface;
+import net.krazyweb.starmodmanager.dialogue.MessageDialogue;
+import net.krazyweb.starmodmanager.dialogue.MessageDialogue.MessageType;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -40,12 +45,14 @@ public class ModListViewController implements Observer {
 	private double y, lastY, mouseY;
 	
 	private SettingsModelInterface settings;
+	private LocalizerModelInterface localizer;
 
 	private boolean expanded, locked;
 
 	protected ModListViewController(final ModListView view, final ModList modList) {
 		
 		settings = new SettingsFactory().getInstance();
+		localizer = new LocalizerFactory().getInstance();
 
 		expanded = settings.getPropertyBoolean("modviewexpanded");
 		locked = settings.getPropertyBoolean("modlistlocked");
@@ -189,6 +196,7 @@ public class ModListViewController implements Observer {
 			return;
 		}
 		
+		modList.saveModOrder();
 		modList.reinstallConflictingMods(oldModOrder);
 		
 		modView.getContent().setTranslateY(modList.getMods().indexOf(modView.getMod()) * 57 - modView.getContent().getLayoutY());
@@ -256,14 +264,12 @@ public class ModListViewController implements Observer {
 	
 	protected void getNewMods() {
 		
-		Thread t = new Thread(modList.getNewModsTask());
-		t.setName("Get Mods Task");
-		t.setDaemon(true);
-		t.start();
+		TaskScheduler.execute(Lane.IO, "Get New Mods", modList.getNewModsTask());
 		
 	}
 	
 	@Override
+	@SuppressWarnings("unchecked")
 	public void update(final Observable observable, final Object message) {
 		
 		if (observable instanceof ModList && message instanceof Object[]) {
@@ -283,6 +289,20 @@ public class ModListViewController implements Observer {
 				
 				updateListView();
 				
+			} else if (args[0].equals("modschanged")) {
+				
+				StringBuilder names = new StringBuilder();
+				
+				for (Mod mod : (List<Mod>) args[1]) {
+					if (names.length() > 0) {
+						names.append(", ");
+					}
+					names.append(mod.getDisplayName());
+				}
+				
+				MessageDialogue dialogue = new MessageDialogue(localizer.formatMessage("modlist.modschanged", names.toString()), localizer.getMessage("modlist.modschanged.title"), MessageType.INFO, new LocalizerFactory());
+				dialogue.getResult();
+				
 			}
 			
 		}
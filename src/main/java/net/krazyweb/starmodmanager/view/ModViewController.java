@@ -9,6 +9,8 @@ import java.net.URL;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.concurrent.Task;
+import net.krazyweb.helpers.TaskScheduler;
+import net.krazyweb.helpers.TaskScheduler.Lane;
 import net.krazyweb.starmodmanager.data.LocalizerFactory;
 import net.krazyweb.starmodmanager.data.LocalizerModelInterface;
 import net.krazyweb.starmodmanager.data.ModList;
@@ -55,11 +57,8 @@ public class ModViewController {
 			}
 		});
 		
-		Thread thread = new Thread(task);
-		thread.setDaemon(true);
-		thread.setName("Install Mod Thread");
 		lview.start();
-		thread.start();
+		TaskScheduler.execute(Lane.INSTALL, "Install Mod", task);
 	}
 	
 	protected void uninstallButtonClicked() {
@@ -0,0 +1,98 @@
+package net.krazyweb.starmodmanager.data;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Gives the tests in net.krazyweb.starmodmanager.test access to the parts of
+ * the data package that are only visible inside it. Every method hands
+ * straight through to the class it wraps.
+ */
+public final class DataAccess {
+	
+	private DataAccess() {
+	}
+	
+	public static DatabaseModelInterface createKeyValueDatabase(final Path folder) {
+		return new KeyValueDatabase(new SettingsFactory(), folder);
+	}
+	
+	public static DatabaseModelInterface createHyperSQLDatabase(final Path folder) {
+		return new HyperSQLDatabase(new SettingsFactory(), folder);
+	}
+	
+	public static void open(final DatabaseModelInterface database) throws SQLException, IOException {
+		((DatabaseBackend) database).open();
+	}
+	
+	public static void close(final DatabaseModelInterface database) throws SQLException, IOException {
+		((DatabaseBackend) database).close();
+	}
+	
+	public static Mod readMod(final DatabaseModelInterface database, final String modName) throws SQLException, IOException {
+		return ((DatabaseBackend) database).readMod(modName);
+	}
+	
+	public static void migrate(final DatabaseModelInterface from, final DatabaseModelInterface to) throws SQLException, IOException {
+		DatabaseMigrator.migrate((DatabaseBackend) from, (DatabaseBackend) to);
+	}
+	
+	public static String writeSnapshot(final Path path, final Collection<Mod> mods) throws IOException {
+		return ModListSnapshot.write(path, mods);
+	}
+	
+	public static Map<String, Mod> readSnapshot(final Path path, final String id) {
+		return ModListSnapshot.read(path, id);
+	}
+	
+	public static Mod createMod(final String internalName, final String displayName, final String author, final String description, final long checksum, final int order, final Set<ModFile> files) {
+		
+		Mod mod = new Mod(new LocalizerFactory(), new SettingsFactory());
+		
+		mod.setInternalName(internalName);
+		mod.setArchiveName(internalName + ".zip");
+		mod.setDisplayName(displayName);
+		mod.setModVersion("1.0");
+		mod.setGameVersion("Beta v. Angry Koala");
+		mod.setAuthor(author);
+		mod.setDescription(description);
+		mod.setURL("");
+		mod.setChecksum(checksum);
+		mod.setOrder(order);
+		mod.setDependencies(new HashSet<String>());
+		mod.setFiles(files);
+		
+		return mod;
+		
+	}
+	
+	public static void setOrder(final Mod mod, final int order) {
+		mod.setOrder(order);
+	}
+	
+	public static void setHidden(final Mod mod, final boolean hidden) {
+		mod.setHidden(hidden);
+	}
+	
+	public static void setInstalled(final Mod mod, final boolean installed) {
+		mod.setInstalled(installed);
+	}
+	
+	public static Set<Mod> getModsWithPath(final Collection<Mod> indexed, final Path path) {
+		ModPathIndex index = new ModPathIndex();
+		index.rebuild(indexed);
+		return index.getModsWithPath(path);
+	}
+	
+	public static Set<Path> getConflictingFiles(final Collection<Mod> indexed, final Collection<Mod> candidates) {
+		ModPathIndex index = new ModPathIndex();
+		index.rebuild(indexed);
+		return index.getConflictingFiles(candidates);
+	}
+	
+}
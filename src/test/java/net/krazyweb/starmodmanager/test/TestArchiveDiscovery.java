@@ -0,0 +1,130 @@
+package net.krazyweb.starmodmanager.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.krazyweb.helpers.CanonicalPathSet;
+import net.krazyweb.helpers.FileHelper;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Benchmark comparing CanonicalPathSet against the Files.isSameFile() loops
+ * it replaced, finding the new archives in a mods folder of 1,000 archives,
+ * half of which already belong to a mod.
+ */
+public class TestArchiveDiscovery {
+	
+	private static final Logger log = LogManager.getLogger(TestArchiveDiscovery.class);
+	
+	private static final int ARCHIVES = 1000;
+	
+	private Path folder;
+	private Set<Path> files;
+	private List<Path> modArchives;
+	
+	@Before
+	public void createArchives() throws IOException {
+		
+		folder = Files.createTempDirectory("mods");
+		modArchives = new ArrayList<>();
+		
+		for (int i = 0; i < ARCHIVES; i++) {
+			
+			Path archive = Files.write(folder.resolve("mod" + i + ".zip"), new byte[] { (byte) i });
+			
+			//The mod's archive path is built differently to the listed one, as it is in the mod list
+			if (i % 2 == 0) {
+				modArchives.add(folder.resolve(".").resolve(archive.getFileName()));
+			}
+			
+		}
+		
+		files = FileHelper.listFiles(folder, new HashSet<Path>());
+		
+	}
+	
+	@After
+	public void deleteArchives() throws IOException {
+		FileHelper.deleteFile(folder);
+	}
+	
+	@Test
+	public void benchmarkDiscovery() throws IOException {
+		
+		long time = System.nanoTime();
+		Set<Path> loopResult = sameFileLoop();
+		long loopTime = System.nanoTime() - time;
+		
+		time = System.nanoTime();
+		Set<Path> setResult = canonicalSet();
+		long setTime = System.nanoTime() - time;
+		
+		log.info("{} archives, {} mods: isSameFile loop {}ms, canonical path set {}ms", ARCHIVES, modArchives.size(), loopTime / 1000000, setTime / 1000000);
+		
+		assertEquals(ARCHIVES - modArchives.size(), setResult.size());
+		assertEquals(loopResult, setResult);
+		
+	}
+	
+	@Test
+	public void testHardLink() throws IOException {
+		
+		Path archive = folder.resolve("mod0.zip");
+		Path link = Files.createLink(folder.resolve("link.zip"), archive);
+		
+		CanonicalPathSet set = new CanonicalPathSet();
+		set.add(archive);
+		
+		assertTrue(set.contains(link));
+		assertFalse(set.add(link));
+		assertEquals(archive, set.remove(link));
+		assertTrue(set.isEmpty());
+		
+	}
+	
+	private Set<Path> sameFileLoop() throws IOException {
+		
+		Set<Path> newFiles = new HashSet<>(files);
+		
+		for (Path path : files) {
+			for (Path archive : modArchives) {
+				if (Files.isSameFile(archive, path)) {
+					newFiles.remove(path);
+				}
+			}
+		}
+		
+		return newFiles;
+		
+	}
+	
+	private Set<Path> canonicalSet() {
+		
+		CanonicalPathSet archives = new CanonicalPathSet(modArchives);
+		Set<Path> newFiles = new HashSet<>();
+		
+		for (Path path : files) {
+			if (!archives.contains(path)) {
+				newFiles.add(path);
+			}
+		}
+		
+		return newFiles;
+		
+	}
+	
+}
@@ -0,0 +1,123 @@
+package net.krazyweb.starmodmanager.test;
+
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.krazyweb.helpers.Archive;
+import net.krazyweb.helpers.ArchiveFile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Micro-benchmark comparing Archive's path index against the linear
+ * scan it replaced, on an archive the size of a large mod pack.
+ */
+public class TestArchiveLookup {
+	
+	private static final Logger log = LogManager.getLogger(TestArchiveLookup.class);
+	
+	private static final int ENTRIES = 10000;
+	private static final int LOOKUPS = 2000;
+	
+	private Archive archive;
+	private List<Path> lookups;
+	
+	@Before
+	public void createArchive() {
+		
+		archive = new Archive(Paths.get("benchmark.zip"));
+		
+		for (int i = 0; i < ENTRIES; i++) {
+			archive.addFile(new ArchiveFile(new byte[0], Paths.get("assets/objects/group" + (i % 100) + "/object" + i + ".object"), false));
+		}
+		
+		archive.addFile(new ArchiveFile(new byte[0], Paths.get("benchmark.modinfo"), false));
+		
+		Random random = new Random(0);
+		lookups = new ArrayList<>();
+		
+		for (int i = 0; i < LOOKUPS; i++) {
+			int entry = random.nextInt(ENTRIES);
+			lookups.add(Paths.get("assets/objects/group" + (entry % 100) + "/object" + entry + ".object"));
+		}
+		
+	}
+	
+	@Test
+	public void benchmarkPathLookup() {
+		
+		//Warm up both paths before timing them
+		linearLookups();
+		indexedLookups();
+		
+		long linearTime = linearLookups();
+		long indexedTime = indexedLookups();
+		
+		log.info("{} lookups in a {} entry archive: linear scan {}ms, path index {}ms", LOOKUPS, ENTRIES, linearTime / 1000000, indexedTime / 1000000);
+		
+		for (Path path : lookups) {
+			assertSame(linearFind(path), archive.getFile(path));
+		}
+		
+	}
+	
+	@Test
+	public void benchmarkSuffixLookup() {
+		
+		long time = System.nanoTime();
+		
+		for (int i = 0; i < LOOKUPS; i++) {
+			archive.getFile(".modinfo");
+		}
+		
+		log.info("{} suffix lookups in a {} entry archive: {}ms", LOOKUPS, ENTRIES, (System.nanoTime() - time) / 1000000);
+		
+		assertSame(archive.getFile(Paths.get("benchmark.modinfo")), archive.getFile(".modinfo"));
+		
+	}
+	
+	private long linearLookups() {
+		
+		long time = System.nanoTime();
+		
+		for (Path path : lookups) {
+			linearFind(path);
+		}
+		
+		return System.nanoTime() - time;
+		
+	}
+	
+	private long indexedLookups() {
+		
+		long time = System.nanoTime();
+		
+		for (Path path : lookups) {
+			archive.getFile(path);
+		}
+		
+		return System.nanoTime() - time;
+		
+	}
+	
+	private ArchiveFile linearFind(final Path path) {
+		
+		for (ArchiveFile file : archive.getFiles()) {
+			if (file.getPath().equals(path)) {
+				return file;
+			}
+		}
+		
+		return null;
+		
+	}
+	
+}
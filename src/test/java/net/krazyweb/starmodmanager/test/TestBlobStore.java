@@ -0,0 +1,95 @@
+package net.krazyweb.starmodmanager.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import net.krazyweb.helpers.BlobStore;
+import net.krazyweb.helpers.FileHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBlobStore {
+	
+	private Path folder;
+	
+	@Before
+	public void createFolder() throws IOException {
+		folder = Files.createTempDirectory("blobstore");
+	}
+	
+	@After
+	public void deleteFolder() throws IOException {
+		FileHelper.deleteFile(folder);
+	}
+	
+	@Test
+	public void testPlacesBlobs() throws IOException {
+		
+		BlobStore blobs = new BlobStore(folder.resolve("blobs"));
+		
+		String hash = blobs.put(new byte[] { 1, 2, 3 });
+		
+		assertTrue(blobs.contains(hash));
+		assertEquals(hash, blobs.put(new byte[] { 1, 2, 3 }));
+		
+		blobs.place(hash, folder.resolve("installed/a"));
+		
+		assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(folder.resolve("installed/a")));
+		
+	}
+	
+	@Test
+	public void testReplacesChangedBlob() throws IOException {
+		
+		BlobStore blobs = new BlobStore(folder.resolve("blobs"));
+		
+		String hash = blobs.put(new byte[] { 1, 2, 3 });
+		blobs.place(hash, folder.resolve("installed/a"));
+		
+		//Written in place, so a linked blob is changed along with it
+		Files.write(folder.resolve("installed/a"), new byte[] { 4, 5, 6, 7 });
+		
+		if (!blobs.contains(hash)) {
+			assertEquals(hash, blobs.put(new byte[] { 1, 2, 3 }));
+		}
+		
+		assertTrue(blobs.contains(hash));
+		
+		blobs.place(hash, folder.resolve("installed/b"));
+		
+		assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(folder.resolve("installed/b")));
+		
+	}
+	
+	@Test
+	public void testRechecksAfterChangeWithSameStamp() throws IOException {
+		
+		BlobStore blobs = new BlobStore(folder.resolve("blobs"));
+		
+		String hash = blobs.put(new byte[] { 1, 2, 3 });
+		blobs.place(hash, folder.resolve("installed/a"));
+		
+		//Same size and modification time, which only a full check can see
+		Path installed = folder.resolve("installed/a");
+		FileTime time = Files.getLastModifiedTime(installed);
+		Files.write(installed, new byte[] { 3, 2, 1 });
+		Files.setLastModifiedTime(installed, time);
+		
+		blobs.recheck();
+		
+		if (Files.isSameFile(installed, folder.resolve("blobs").resolve(hash.substring(0, 2)).resolve(hash))) {
+			assertFalse(blobs.contains(hash));
+		}
+		
+	}
+	
+}
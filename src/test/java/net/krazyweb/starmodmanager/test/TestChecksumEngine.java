@@ -0,0 +1,86 @@
+package net.krazyweb.starmodmanager.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import net.krazyweb.helpers.ChecksumEngine;
+import net.krazyweb.helpers.ChecksumEngine.Algorithm;
+import net.krazyweb.helpers.FileHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestChecksumEngine {
+	
+	private byte[] data;
+	private Path file;
+	
+	@Before
+	public void createFile() throws IOException {
+		
+		//Larger than one read block, and not a multiple of it
+		data = new byte[3 * 1024 * 1024 + 17];
+		new Random(42).nextBytes(data);
+		
+		file = Files.createTempFile("checksum", ".pak");
+		Files.write(file, data);
+		
+	}
+	
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+	
+	@Test
+	public void testAdler32MatchesStoredChecksums() throws IOException {
+		
+		Adler32 expected = new Adler32();
+		expected.update(data, 0, data.length);
+		
+		assertEquals(expected.getValue(), ChecksumEngine.checksum(file, Algorithm.ADLER32));
+		assertEquals(expected.getValue(), FileHelper.getChecksum(file));
+		
+	}
+	
+	@Test
+	public void testCRC32() throws IOException {
+		
+		CRC32 expected = new CRC32();
+		expected.update(data, 0, data.length);
+		
+		assertEquals(expected.getValue(), ChecksumEngine.checksum(file, Algorithm.CRC32));
+		assertEquals(expected.getValue(), ChecksumEngine.checksum(data, Algorithm.CRC32));
+		
+	}
+	
+	@Test
+	public void testSHA256() throws Exception {
+		
+		byte[] expected = MessageDigest.getInstance("SHA-256").digest(data);
+		
+		assertArrayEquals(expected, ChecksumEngine.digest(file, Algorithm.SHA256));
+		assertArrayEquals(expected, ChecksumEngine.digest(data, Algorithm.SHA256));
+		assertEquals(64, ChecksumEngine.toHex(expected).length());
+		
+	}
+	
+	@Test
+	public void testEmptyFile() throws IOException {
+		
+		Files.write(file, new byte[0]);
+		
+		assertEquals(1L, ChecksumEngine.checksum(file, Algorithm.ADLER32));
+		
+	}
+	
+}
@@ -1,9 +1,11 @@
 package net.krazyweb.starmodmanager.test;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javafx.concurrent.Task;
 import net.krazyweb.starmodmanager.data.DatabaseModelInterface;
@@ -42,6 +44,12 @@ public class TestDatabase implements DatabaseModelInterface {
 		
 	}
 
+	@Override
+	public void updateOrders(List<Mod> mods) throws SQLException {
+		// TODO Auto-generated method stub
+		
+	}
+
 	@Override
 	public void deleteMod(Mod mod) throws SQLException {
 		// TODO Auto-generated method stub
@@ -60,6 +68,18 @@ public class TestDatabase implements DatabaseModelInterface {
 		return null;
 	}
 
+	@Override
+	public Set<String> getModsWithFile(Path path) throws SQLException {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
+	@Override
+	public Set<Path> getConflictingFiles() throws SQLException {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
 	@Override
 	public Map<String, String> getProperties() throws SQLException {
 		// TODO Auto-generated method stub
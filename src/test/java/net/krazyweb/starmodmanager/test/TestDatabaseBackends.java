@@ -0,0 +1,261 @@
+package net.krazyweb.starmodmanager.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.krazyweb.helpers.FileHelper;
+import net.krazyweb.starmodmanager.data.DataAccess;
+import net.krazyweb.starmodmanager.data.DatabaseModelInterface;
+import net.krazyweb.starmodmanager.data.Mod;
+import net.krazyweb.starmodmanager.data.ModFile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Checks the key-value backend and migration against HyperSQL, and compares
+ * the startup time and updateMod() throughput of the two backends on a mod
+ * list the size of a large install.
+ */
+public class TestDatabaseBackends {
+	
+	private static final Logger log = LogManager.getLogger(TestDatabaseBackends.class);
+	
+	private static final int MODS = 200;
+	private static final int FILES = 100;
+	
+	private static final Path SHARED = Paths.get("assets/shared0.png");
+	
+	private Path folder;
+	
+	@Before
+	public void createFolder() throws IOException {
+		folder = Files.createTempDirectory("database");
+	}
+	
+	@After
+	public void deleteFolder() throws IOException {
+		FileHelper.deleteFile(folder);
+	}
+	
+	@Test
+	public void testKeyValueReopens() throws Exception {
+		
+		DatabaseModelInterface database = DataAccess.createKeyValueDatabase(folder);
+		DataAccess.open(database);
+		
+		List<Mod> mods = createMods(3);
+		
+		for (Mod mod : mods) {
+			database.updateMod(mod);
+		}
+		
+		DataAccess.setOrder(mods.get(0), 2);
+		DataAccess.setOrder(mods.get(2), 0);
+		database.updateOrders(mods);
+		database.deleteMod(mods.get(1));
+		database.setProperty("modsdir", "mods");
+		DataAccess.close(database);
+		
+		database = DataAccess.createKeyValueDatabase(folder);
+		DataAccess.open(database);
+		
+		assertEquals(2, database.getModNames().size());
+		assertEquals(2, DataAccess.readMod(database, "mod0").getOrder());
+		assertEquals(FILES, DataAccess.readMod(database, "mod2").getFiles().size());
+		assertNull(DataAccess.readMod(database, "mod1"));
+		assertEquals("mods", database.getPropertyString("modsdir", null));
+		
+		DataAccess.close(database);
+		
+	}
+	
+	@Test
+	public void testMigration() throws Exception {
+		
+		DatabaseModelInterface from = DataAccess.createHyperSQLDatabase(folder.resolve("hsql"));
+		DataAccess.open(from);
+		
+		for (Mod mod : createMods(5)) {
+			from.updateMod(mod);
+		}
+		
+		from.setProperty("modsdir", "mods");
+		DataAccess.close(from);
+		
+		DatabaseModelInterface to = DataAccess.createKeyValueDatabase(folder.resolve("hsql"));
+		DataAccess.open(to);
+		DataAccess.migrate(from, to);
+		
+		assertEquals(5, to.getModNames().size());
+		assertEquals(FILES, DataAccess.readMod(to, "mod3").getFiles().size());
+		assertEquals("mods", to.getPropertyString("modsdir", null));
+		
+		DataAccess.close(to);
+		
+	}
+	
+	@Test
+	public void testPathQueries() throws Exception {
+		checkPathQueries(DataAccess.createHyperSQLDatabase(folder.resolve("hsql")), DataAccess.createHyperSQLDatabase(folder.resolve("hsql")));
+		checkPathQueries(DataAccess.createKeyValueDatabase(folder.resolve("kv")), DataAccess.createKeyValueDatabase(folder.resolve("kv")));
+	}
+	
+	/*
+	 * Every mod replaces the shared file with different contents. Of the six,
+	 * only the first three count: the others are hidden, not installed, or
+	 * merge the file. The first two also ship an identical copy of another
+	 * file, which isn't a conflict. The results must match ModPathIndex.
+	 */
+	private void checkPathQueries(final DatabaseModelInterface database, final DatabaseModelInterface reopened) throws Exception {
+		
+		List<Mod> mods = createMods(6);
+		
+		for (Mod mod : mods) {
+			DataAccess.setInstalled(mod, true);
+		}
+		
+		DataAccess.setHidden(mods.get(3), true);
+		DataAccess.setInstalled(mods.get(4), false);
+		
+		for (ModFile file : mods.get(5).getFiles()) {
+			if (file.getPath().equals(SHARED)) {
+				file.setAutoMerged(true);
+			}
+		}
+		
+		for (int i = 0; i < 2; i++) {
+			ModFile file = new ModFile();
+			file.setPath(Paths.get("assets/identical.png"));
+			file.setHash("identical");
+			mods.get(i).getFiles().add(file);
+		}
+		
+		List<Mod> active = new ArrayList<>();
+		Set<String> expectedMods = new HashSet<>();
+		
+		for (Mod mod : mods) {
+			if (mod.isInstalled() && !mod.isHidden()) {
+				active.add(mod);
+			}
+		}
+		
+		for (Mod mod : DataAccess.getModsWithPath(mods, SHARED)) {
+			if (active.contains(mod)) {
+				expectedMods.add(mod.getInternalName());
+			}
+		}
+		
+		Set<Path> expectedFiles = DataAccess.getConflictingFiles(mods, active);
+		
+		assertEquals(new HashSet<>(Arrays.asList("mod0", "mod1", "mod2")), expectedMods);
+		assertEquals(Collections.singleton(SHARED), expectedFiles);
+		
+		DataAccess.open(database);
+		
+		for (Mod mod : mods) {
+			database.updateMod(mod);
+		}
+		
+		assertEquals(expectedMods, database.getModsWithFile(SHARED));
+		assertEquals(expectedFiles, database.getConflictingFiles());
+		
+		DataAccess.close(database);
+		DataAccess.open(reopened);
+		
+		assertEquals(expectedMods, reopened.getModsWithFile(SHARED));
+		assertEquals(expectedFiles, reopened.getConflictingFiles());
+		assertEquals(0, reopened.getModsWithFile(Paths.get("assets/missing.png")).size());
+		
+		DataAccess.close(reopened);
+		
+	}
+	
+	@Test
+	public void testBenchmark() throws Exception {
+		benchmark(DataAccess.createHyperSQLDatabase(folder.resolve("hsql")), DataAccess.createHyperSQLDatabase(folder.resolve("hsql")));
+		benchmark(DataAccess.createKeyValueDatabase(folder.resolve("kv")), DataAccess.createKeyValueDatabase(folder.resolve("kv")));
+	}
+	
+	private void benchmark(final DatabaseModelInterface database, final DatabaseModelInterface reopened) throws Exception {
+		
+		List<Mod> mods = createMods(MODS);
+		
+		DataAccess.open(database);
+		
+		long time = System.nanoTime();
+		
+		for (Mod mod : mods) {
+			database.updateMod(mod);
+		}
+		
+		long updateTime = System.nanoTime() - time;
+		
+		DataAccess.close(database);
+		
+		time = System.nanoTime();
+		
+		DataAccess.open(reopened);
+		
+		int read = 0;
+		
+		for (String names : reopened.getModNames()) {
+			if (DataAccess.readMod(reopened, names.split("\n")[0]) != null) {
+				read++;
+			}
+		}
+		
+		long startupTime = System.nanoTime() - time;
+		
+		DataAccess.close(reopened);
+		
+		assertEquals(MODS, read);
+		
+		log.info("{}: {} updateMod() calls ({} files each) in {}ms, reopened and read back in {}ms", database.getClass().getSimpleName(), MODS, FILES, updateTime / 1000000, startupTime / 1000000);
+		
+	}
+	
+	private List<Mod> createMods(final int count) {
+		
+		List<Mod> mods = new ArrayList<>();
+		
+		for (int i = 0; i < count; i++) {
+			
+			Set<ModFile> files = new HashSet<>();
+			
+			for (int j = 0; j < FILES; j++) {
+				
+				ModFile file = new ModFile();
+				
+				//Every mod shares its first file with the others
+				file.setPath(Paths.get(j == 0 ? "assets/shared0.png" : "assets/mod" + i + "/file" + j + ".png"));
+				file.setJson(false);
+				file.setHash(Integer.toHexString(i * FILES + j));
+				
+				files.add(file);
+				
+			}
+			
+			mods.add(DataAccess.createMod("mod" + i, "Mod " + i, "Author " + i, "Description of mod " + i, i, i, files));
+			
+		}
+		
+		return mods;
+		
+	}
+	
+}
@@ -0,0 +1,95 @@
+package net.krazyweb.starmodmanager.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Set;
+
+import net.krazyweb.helpers.DiskCache;
+import net.krazyweb.helpers.FileHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestDiskCache {
+	
+	private Path folder;
+	
+	@Before
+	public void createFolder() throws IOException {
+		folder = Files.createTempDirectory("diskcache");
+	}
+	
+	@After
+	public void deleteFolder() throws IOException {
+		FileHelper.deleteFile(folder);
+	}
+	
+	@Test
+	public void testStoresEntries() throws IOException {
+		
+		DiskCache cache = new DiskCache(folder, 1024);
+		
+		cache.put("a", new byte[] { 1, 2, 3 });
+		
+		assertArrayEquals(new byte[] { 1, 2, 3 }, cache.get("a"));
+		assertNull(cache.get("b"));
+		
+	}
+	
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		
+		DiskCache cache = new DiskCache(folder, 250);
+		
+		long now = System.currentTimeMillis();
+		
+		cache.put("a", new byte[100]);
+		Path a = getNewEntry(Collections.<Path> emptySet());
+		cache.put("b", new byte[100]);
+		Path b = getNewEntry(Collections.singleton(a));
+		
+		//Set explicitly, as entries written in the same instant may share a time
+		Files.setLastModifiedTime(a, FileTime.fromMillis(now - 20000));
+		Files.setLastModifiedTime(b, FileTime.fromMillis(now - 10000));
+		
+		//Using "a" makes "b" the least recently used entry
+		cache.get("a");
+		
+		cache.put("c", new byte[100]);
+		
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+		
+	}
+	
+	//Returns the one entry in the cache folder that isn't in the given set
+	private Path getNewEntry(final Set<Path> known) throws IOException {
+		
+		Path entry = null;
+		
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+			for (Path path : stream) {
+				if (!known.contains(path)) {
+					assertNull(entry);
+					entry = path;
+				}
+			}
+		}
+		
+		assertNotNull(entry);
+		
+		return entry;
+		
+	}
+	
+}
@@ -0,0 +1,81 @@
+package net.krazyweb.starmodmanager.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import net.krazyweb.helpers.JsonMerger;
+
+import org.junit.Test;
+
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+public class TestJsonMerger {
+	
+	private static JsonMerger merge(final String base, final String... versions) {
+		
+		JsonValue[] values = new JsonValue[versions.length];
+		String[] names = new String[versions.length];
+		
+		for (int i = 0; i < versions.length; i++) {
+			values[i] = JsonValue.readFrom(versions[i]);
+			names[i] = "mod" + i;
+		}
+		
+		return new JsonMerger(base == null ? null : JsonValue.readFrom(base), Arrays.asList(values), Arrays.asList(names));
+		
+	}
+	
+	@Test
+	public void testIndependentChangesAreKept() {
+		
+		JsonMerger merger = merge("{\"a\":1,\"b\":{\"c\":2,\"d\":3},\"e\":4}",
+				"{\"a\":10,\"b\":{\"c\":2,\"d\":3},\"e\":4}",
+				"{\"a\":1,\"b\":{\"c\":2,\"d\":30},\"e\":4,\"f\":[1,2]}",
+				"{\"a\":1,\"b\":{\"c\":2,\"d\":3}}");
+		
+		JsonObject result = merger.getResult().asObject();
+		
+		assertEquals(10, result.get("a").asInt());
+		assertEquals(30, result.get("b").asObject().get("d").asInt());
+		assertEquals(2, result.get("f").asArray().size());
+		assertNull(result.get("e"));
+		assertEquals(0, merger.getConflicts().size());
+		
+	}
+	
+	@Test
+	public void testLaterVersionWinsConflicts() {
+		
+		JsonMerger merger = merge("{\"a\":{\"b\":1}}", "{\"a\":{\"b\":2}}", "{\"a\":{\"b\":3}}", "{\"a\":[]}");
+		
+		assertEquals(0, merger.getResult().asObject().get("a").asArray().size());
+		assertEquals(2, merger.getConflicts().size());
+		assertEquals("/a/b", merger.getConflicts().get(0).getPath());
+		assertEquals("mod1", merger.getConflicts().get(0).getWinner());
+		assertEquals("/a", merger.getConflicts().get(1).getPath());
+		
+	}
+	
+	@Test
+	public void testIdenticalChangesDoNotConflict() {
+		
+		JsonMerger merger = merge("{\"a\":1}", "{\"a\":2}", "{\"a\":2}");
+		
+		assertEquals(2, merger.getResult().asObject().get("a").asInt());
+		assertEquals(0, merger.getConflicts().size());
+		
+	}
+	
+	@Test
+	public void testNewDocumentsAreMerged() {
+		
+		JsonMerger merger = merge(null, "{\"a\":{\"b\":1}}", "{\"a\":{\"b\":1,\"c\":2}}");
+		
+		assertEquals("{\"a\":{\"b\":1,\"c\":2}}", merger.getResult().toString());
+		
+	}
+	
+}
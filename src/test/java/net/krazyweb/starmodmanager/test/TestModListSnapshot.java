@@ -0,0 +1,115 @@
+package net.krazyweb.starmodmanager.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.krazyweb.helpers.FileHelper;
+import net.krazyweb.starmodmanager.data.DataAccess;
+import net.krazyweb.starmodmanager.data.Mod;
+import net.krazyweb.starmodmanager.data.ModFile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Checks that the mod list snapshot reads back what was written, and is
+ * rejected when its id doesn't match. The read is timed on a mod list the
+ * size of a large install.
+ */
+public class TestModListSnapshot {
+	
+	private static final Logger log = LogManager.getLogger(TestModListSnapshot.class);
+	
+	private static final int MODS = 200;
+	private static final int FILES = 100;
+	
+	private Path folder;
+	
+	@Before
+	public void createFolder() throws IOException {
+		folder = Files.createTempDirectory("snapshot");
+	}
+	
+	@After
+	public void deleteFolder() throws IOException {
+		FileHelper.deleteFile(folder);
+	}
+	
+	@Test
+	public void testReadBack() throws Exception {
+		
+		Path path = folder.resolve("modlist.snapshot");
+		List<Mod> mods = createMods(MODS);
+		DataAccess.setHidden(mods.get(1), true);
+		mods.get(2).getFiles().iterator().next().setAutoMerged(true);
+		
+		String id = DataAccess.writeSnapshot(path, mods);
+		
+		long time = System.nanoTime();
+		Map<String, Mod> snapshot = DataAccess.readSnapshot(path, id);
+		long readTime = System.nanoTime() - time;
+		
+		assertEquals(MODS, snapshot.size());
+		assertEquals(FILES, snapshot.get("mod3").getFiles().size());
+		assertEquals("Description of mod 3", snapshot.get("mod3").getDescription());
+		assertEquals(3, snapshot.get("mod3").getOrder());
+		assertTrue(snapshot.get("mod1").isHidden());
+		
+		int autoMerged = 0;
+		
+		for (ModFile file : snapshot.get("mod2").getFiles()) {
+			if (file.isAutoMerged()) {
+				autoMerged++;
+			}
+		}
+		
+		assertEquals(1, autoMerged);
+		assertEquals(0, DataAccess.readSnapshot(path, "").size());
+		assertEquals(0, DataAccess.readSnapshot(path, id + "0").size());
+		
+		log.info("ModListSnapshot: {} mods ({} files each) read back in {}ms", MODS, FILES, readTime / 1000000);
+		
+	}
+	
+	private List<Mod> createMods(final int count) {
+		
+		List<Mod> mods = new ArrayList<>();
+		
+		for (int i = 0; i < count; i++) {
+			
+			Set<ModFile> files = new HashSet<>();
+			
+			for (int j = 0; j < FILES; j++) {
+				
+				ModFile file = new ModFile();
+				
+				file.setPath(Paths.get("assets/mod" + i + "/file" + j + ".png"));
+				file.setJson(false);
+				file.setHash(Integer.toHexString(i * FILES + j));
+				
+				files.add(file);
+				
+			}
+			
+			mods.add(DataAccess.createMod("mod" + i, "Mod " + i, "Author " + i, "Description of mod " + i, i, i, files));
+			
+		}
+		
+		return mods;
+		
+	}
+	
+}
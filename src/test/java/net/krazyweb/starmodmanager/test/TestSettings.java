@@ -108,6 +108,12 @@ public class TestSettings implements SettingsModelInterface {
 		
 	}
 
+	@Override
+	public void flush() {
+		// TODO Auto-generated method stub
+		
+	}
+
 	@Override
 	public void setLoggerLevel(Level level) {
 		// TODO Auto-generated method stub